@@ -0,0 +1,92 @@
+package com.cvent.etcd;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Per call overhead of the client against an in-process stub, so the numbers are dominated by the client rather than
+ * by etcd or the network
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EtcdClientBenchmark {
+
+    private static final int PIPELINE_DEPTH = 16;
+
+    EtcdStubServer server;
+    EtcdClient client;
+    EtcdCluster.Member member;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new EtcdStubServer("benchmark");
+        // Coalescing would fold the pipelined reads of the same key into one request
+        client = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(PIPELINE_DEPTH)
+                .coalesceReads(false).build();
+        member = new EtcdCluster(Collections.singletonList(server.getUri())).selectForRead();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public URI buildKeyUri() {
+        return client.buildKeyUri("v2/keys", "/services/web/instance-01", "?recursive=true");
+    }
+
+    @Benchmark
+    public URI buildKeyUriEscaped() {
+        return client.buildKeyUri("v2/keys", "/services/web/instance 01", "");
+    }
+
+    @Benchmark
+    public URI requestUri() {
+        return member.resolve(client.buildKeyUri("v2/keys", "/services/web/instance-01", ""));
+    }
+
+    @Benchmark
+    public EtcdResult syncGet() throws Exception {
+        return client.get("/benchmark");
+    }
+
+    @Benchmark
+    public EtcdResult asyncGet() throws Exception {
+        return client.getAsync("/benchmark").get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public List<EtcdResult> asyncGetPipelined() throws Exception {
+        List<ListenableFuture<EtcdResult>> futures = new ArrayList<>(PIPELINE_DEPTH);
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            futures.add(client.getAsync("/benchmark"));
+        }
+        return Futures.allAsList(futures).get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.cvent.etcd;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Latency of small gets while large listings are being read on the same client, with responses parsed on the I/O
+ * thread ("reactor") against parsed on the client's decode pool ("pool"). With a single I/O thread, a large response
+ * parsed on it holds up every small response behind it.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EtcdDecodeBenchmark {
+
+    private static final int LARGE_LISTING_NODES = 20000;
+
+    @Param({"reactor", "pool"})
+    String decode;
+
+    EtcdStubServer server;
+    EtcdClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new EtcdStubServer("benchmark");
+        server.setLargeListingSize(LARGE_LISTING_NODES);
+        EtcdClientBuilder builder = new EtcdClientBuilder().member(server.getUri()).ioThreadCount(1)
+                .maxConnectionsPerRoute(8).coalesceReads(false);
+        if ("reactor".equals(decode)) {
+            builder.decodeExecutor(MoreExecutors.sameThreadExecutor());
+        }
+        client = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public EtcdResult smallGet() throws Exception {
+        return client.get("/small");
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public EtcdResult largeGet() throws Exception {
+        return client.get("/large", true);
+    }
+}
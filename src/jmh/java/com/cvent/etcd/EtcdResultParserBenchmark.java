@@ -0,0 +1,93 @@
+package com.cvent.etcd;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Parsing of a single key response and of a large recursive listing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EtcdResultParserBenchmark {
+
+    private static final int DIRECTORIES = 50;
+    private static final int KEYS_PER_DIRECTORY = 40;
+
+    String small;
+    String large;
+    byte[] largeValue;
+
+    @Setup
+    public void setup() {
+        small = "{\"action\":\"get\",\"node\":{\"key\":\"/config/feature\",\"value\":\"enabled\","
+                + "\"modifiedIndex\":1234,\"createdIndex\":1200}}";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"action\":\"get\",\"node\":{\"key\":\"/services\",\"dir\":true,\"nodes\":[");
+        for (int d = 0; d < DIRECTORIES; d++) {
+            if (d > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"key\":\"/services/service").append(d).append("\",\"dir\":true,\"nodes\":[");
+            for (int k = 0; k < KEYS_PER_DIRECTORY; k++) {
+                if (k > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"key\":\"/services/service").append(d).append("/instance").append(k)
+                        .append("\",\"value\":\"10.0.").append(d).append('.').append(k)
+                        .append(":8080\",\"expiration\":\"2014-06-01T12:00:00.000000000Z\",\"ttl\":30")
+                        .append(",\"modifiedIndex\":").append(d * KEYS_PER_DIRECTORY + k + 2)
+                        .append(",\"createdIndex\":").append(d * KEYS_PER_DIRECTORY + k + 2).append('}');
+            }
+            sb.append("],\"modifiedIndex\":1,\"createdIndex\":1}");
+        }
+        sb.append("],\"modifiedIndex\":1,\"createdIndex\":1}}");
+        large = sb.toString();
+
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 64 * 1024) {
+            value.append("{\\\"id\\\":").append(value.length()).append(",\\\"name\\\":\\\"blob\\\"}");
+        }
+        largeValue = ("{\"action\":\"get\",\"node\":{\"key\":\"/blob\",\"value\":\"" + value
+                + "\",\"modifiedIndex\":1,\"createdIndex\":1}}").getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public EtcdResult parseSmall() throws Exception {
+        return EtcdResultParser.parse(small);
+    }
+
+    @Benchmark
+    public byte[] parseLargeValueViaString() throws Exception {
+        EtcdResult result = EtcdResultParser.parse(new ByteArrayInputStream(largeValue), false);
+        return result.getNode().getValue().getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] parseLargeValueAsBytes() throws Exception {
+        EtcdResult result = EtcdResultParser.parse(new ByteArrayInputStream(largeValue), true);
+        return result.getNode().getValueBytes();
+    }
+
+    @Benchmark
+    public EtcdResult parseLargeRecursive() throws Exception {
+        return EtcdResultParser.parse(large);
+    }
+}
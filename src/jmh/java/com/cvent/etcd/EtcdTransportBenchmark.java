@@ -0,0 +1,107 @@
+package com.cvent.etcd;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of sync calls sent through the async client ("async") against sent on the calling thread over the blocking
+ * client ("blocking"). JMH does not measure the CPU spent on other threads, so each iteration also prints the CPU time
+ * per call of every thread but the stub server's, which covers the I/O and decode threads of the async path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EtcdTransportBenchmark {
+
+    @Param({"async", "blocking"})
+    String transport;
+
+    EtcdStubServer server;
+    EtcdClient client;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final AtomicLong calls = new AtomicLong();
+    private long cpuAtStart;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new EtcdStubServer("benchmark");
+        // Coalescing would fold the concurrent reads of the same key into fewer requests on the async path only
+        client = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(4).coalesceReads(false)
+                .blockingTransport("blocking".equals(transport)).build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        calls.set(0);
+        cpuAtStart = clientCpuNanos();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportCpu() {
+        long count = calls.get();
+        if (count > 0) {
+            System.out.printf("%n%s: %.1f us CPU per call over %d calls%n", transport,
+                    (clientCpuNanos() - cpuAtStart) / 1000.0 / count, count);
+        }
+    }
+
+    @Benchmark
+    public EtcdResult get() throws Exception {
+        calls.incrementAndGet();
+        return client.get("/benchmark");
+    }
+
+    @Benchmark
+    public EtcdResult set() throws Exception {
+        calls.incrementAndGet();
+        return client.set("/benchmark", "value");
+    }
+
+    /**
+     * @return the CPU time of every live thread except the stub server's, whose handlers and dispatcher would
+     * otherwise make up most of it
+     */
+    private long clientCpuNanos() {
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null || info.getThreadName().startsWith(EtcdStubServer.STUB_THREAD_PREFIX)
+                    || info.getThreadName().startsWith("HTTP-Dispatcher")) {
+                continue;
+            }
+            long cpu = threads.getThreadCpuTime(info.getThreadId());
+            if (cpu > 0) {
+                total += cpu;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,73 @@
+package com.cvent.etcd;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of one event delivery plus re-arm of an {@link EtcdWatcher}. The stub answers every watch straight away,
+ * so the watcher re-arms as fast as the client allows and each operation waits for the next event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EtcdWatcherBenchmark {
+
+    EtcdStubServer server;
+    EtcdClient client;
+    EtcdWatcher watcher;
+    final Semaphore events = new Semaphore(0);
+
+    @Setup
+    public void setup() throws Exception {
+        server = new EtcdStubServer("benchmark");
+        client = new EtcdClientBuilder().member(server.getUri()).build();
+        watcher = client.watch("/benchmark", 1L, false, new EtcdWatchListener() {
+            @Override
+            public void onEvent(EtcdResult event) {
+                events.release();
+            }
+
+            @Override
+            public void onResync(EtcdResult snapshot) {
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void drain() {
+        // Events delivered between iterations would otherwise be counted as free operations
+        events.drainPermits();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        watcher.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void rearm() throws Exception {
+        events.acquire();
+    }
+}
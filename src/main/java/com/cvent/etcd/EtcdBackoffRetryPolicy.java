@@ -0,0 +1,57 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries with jittered exponential backoff. The first retry is sent straight away, since it goes to another member;
+ * after that each retry waits a random time between zero and a ceiling that doubles with every failure, so clients
+ * that failed together do not all come back at the same moment.
+ *
+ * @author bryan
+ */
+public final class EtcdBackoffRetryPolicy implements EtcdRetryPolicy {
+
+    /**
+     * Up to 3 retries, backing off from 50ms up to 2s
+     */
+    public static final EtcdBackoffRetryPolicy DEFAULT = new EtcdBackoffRetryPolicy(3, 50, 2000, TimeUnit.MILLISECONDS);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxRetries the number of retries after the first attempt
+     * @param baseDelay the ceiling of the delay before the second retry
+     * @param maxDelay the highest the ceiling gets
+     * @param unit the unit of both delays
+     */
+    public EtcdBackoffRetryPolicy(int maxRetries, long baseDelay, long maxDelay, TimeUnit unit) {
+        Preconditions.checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+        Preconditions.checkArgument(baseDelay > 0, "baseDelay must be positive");
+        Preconditions.checkArgument(maxDelay >= baseDelay, "maxDelay must not be less than baseDelay");
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = unit.toMillis(baseDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+    }
+
+    @Override
+    public long retryDelayMillis(int failures, Throwable cause) {
+        if (failures > maxRetries) {
+            return -1;
+        }
+        if (failures <= 1) {
+            return 0;
+        }
+        long ceiling = Math.min(baseDelayMillis << Math.min(failures - 2, 30), maxDelayMillis);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "EtcdBackoffRetryPolicy{maxRetries=" + maxRetries + ", baseDelayMillis=" + baseDelayMillis
+                + ", maxDelayMillis=" + maxDelayMillis + '}';
+    }
+}
@@ -0,0 +1,158 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs one async operation per item with a bounded number in flight, starting the next one as soon as any completes.
+ * This keeps the connections busy without queueing thousands of requests in the http client at once. Cancelling the
+ * returned future stops starting operations and cancels the ones in flight.
+ *
+ * @author bryan
+ * @param <T> the type of the items
+ */
+final class EtcdBulkPipeline<T> {
+
+    /**
+     * The operation to run for each item
+     *
+     * @param <T>
+     */
+    interface Operation<T> {
+
+        String key(T item);
+
+        ListenableFuture<EtcdResult> start(T item) throws EtcdClientException;
+    }
+
+    private final Iterator<T> items;
+    private final Operation<T> operation;
+    private final int maxInFlight;
+    private final SettableFuture<EtcdBulkResult> future = SettableFuture.create();
+
+    // Guarded by this
+    private final Map<String, EtcdResult> results = new HashMap<>();
+    private final Map<String, EtcdClientException> errors = new HashMap<>();
+    private final Set<ListenableFuture<EtcdResult>> running = new HashSet<>();
+    private int inFlight;
+    private boolean pumping;
+    private boolean repump;
+
+    EtcdBulkPipeline(Iterable<T> items, int maxInFlight, Operation<T> operation) {
+        this.items = items.iterator();
+        this.maxInFlight = maxInFlight;
+        this.operation = operation;
+    }
+
+    ListenableFuture<EtcdBulkResult> run() {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    List<ListenableFuture<EtcdResult>> cancelled;
+                    synchronized (EtcdBulkPipeline.this) {
+                        cancelled = new ArrayList<>(running);
+                    }
+                    for (ListenableFuture<EtcdResult> result : cancelled) {
+                        result.cancel(false);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        pump();
+        return future;
+    }
+
+    /**
+     * Starts operations until the in-flight limit is reached. Operations that complete straight away call back into
+     * this, so instead of recursing they flag that another pass is needed.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                repump = true;
+                return;
+            }
+            pumping = true;
+        }
+
+        while (true) {
+            T item;
+            synchronized (this) {
+                if (!future.isDone() && inFlight < maxInFlight && items.hasNext()) {
+                    item = items.next();
+                    inFlight++;
+                } else if (repump) {
+                    repump = false;
+                    continue;
+                } else {
+                    pumping = false;
+                    if (inFlight == 0 && !items.hasNext() && !future.isDone()) {
+                        future.set(new EtcdBulkResult(results, errors));
+                    }
+                    return;
+                }
+            }
+            start(item);
+        }
+    }
+
+    private void start(T item) {
+        final String key = operation.key(item);
+        ListenableFuture<EtcdResult> result;
+        try {
+            result = operation.start(item);
+        } catch (EtcdClientException e) {
+            result = Futures.immediateFailedFuture(e);
+        }
+        final ListenableFuture<EtcdResult> started = result;
+        synchronized (this) {
+            running.add(started);
+        }
+        // Cancelled while this was starting, after the listener went through the operations in flight
+        if (future.isCancelled()) {
+            started.cancel(false);
+        }
+
+        Futures.addCallback(started, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                synchronized (EtcdBulkPipeline.this) {
+                    results.put(key, result);
+                    running.remove(started);
+                    inFlight--;
+                }
+                pump();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                EtcdClientException error;
+                if (t instanceof EtcdClientException) {
+                    error = (EtcdClientException) t;
+                } else if (t instanceof CancellationException) {
+                    error = new EtcdClientException("Request cancelled", t);
+                } else {
+                    error = new EtcdClientException("Error executing request", t);
+                }
+                synchronized (EtcdBulkPipeline.this) {
+                    errors.put(key, error);
+                    running.remove(started);
+                    inFlight--;
+                }
+                pump();
+            }
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package com.cvent.etcd;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk operation, with a result or an error for every key
+ *
+ * @author bryan
+ */
+public class EtcdBulkResult {
+
+    private final Map<String, EtcdResult> results;
+    private final Map<String, EtcdClientException> errors;
+
+    EtcdBulkResult(Map<String, EtcdResult> results, Map<String, EtcdClientException> errors) {
+        this.results = Collections.unmodifiableMap(results);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * The results of the keys that succeeded. For gets, keys that were not found map to null.
+     *
+     * @return
+     */
+    public Map<String, EtcdResult> getResults() {
+        return results;
+    }
+
+    /**
+     * The errors of the keys that failed
+     *
+     * @return
+     */
+    public Map<String, EtcdClientException> getErrors() {
+        return errors;
+    }
+
+    public EtcdResult getResult(String key) {
+        return results.get(key);
+    }
+
+    public EtcdClientException getError(String key) {
+        return errors.get(key);
+    }
+
+    /**
+     * @return true if every key succeeded
+     */
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+}
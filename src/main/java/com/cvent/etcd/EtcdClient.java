@@ -2,36 +2,63 @@ package com.cvent.etcd;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.net.ConnectException;
 import java.net.URI;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
-import org.apache.http.impl.nio.client.HttpAsyncClients;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.util.EntityUtils;
 
-import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Lists;
+import com.google.common.base.Function;
+import com.google.common.io.CountingInputStream;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.Closeable;
 import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A simple EtcdClient built around async http client from apache. Originally take from here, but modified to work with
@@ -41,25 +68,114 @@ import org.apache.http.HttpStatus;
  */
 public class EtcdClient implements Closeable {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdClient.class);
+
+    /**
+     * How often {@link #update(String, Function)} tries again after losing a race, and how long it backs off
+     */
+    private static final EtcdRetryPolicy UPDATE_BACKOFF = new EtcdBackoffRetryPolicy(9, 10, 500,
+            TimeUnit.MILLISECONDS);
+
+    /**
+     * The header etcd uses to report its current index
+     */
+    private static final String ETCD_INDEX_HEADER = "X-Etcd-Index";
+
+    /**
+     * Turns a key not found error into a null result
+     */
+    private static final AsyncFunction<EtcdResult, EtcdResult> KEY_NOT_FOUND_AS_NULL
+            = new AsyncFunction<EtcdResult, EtcdResult>() {
+                @Override
+                public ListenableFuture<EtcdResult> apply(EtcdResult result) throws Exception {
+                    return Futures.immediateFuture(keyNotFoundAsNull(result));
+                }
+            };
+
     private final CloseableHttpAsyncClient httpClient;
+    private final CloseableHttpAsyncClient watchClient;
+    private final RequestConfig watchRequestConfig;
+    /**
+     * Sends the plain sync key calls on the calling thread, null if they go through the async client
+     */
+    private final CloseableHttpClient blockingClient;
     /**
      * The object mapper from jackson json parser which is responsible for parsing json using annotations
      */
     protected static final ObjectMapper MAPPER = new ObjectMapper();
 
-    private final URI baseUri;
+    private final EtcdCluster cluster;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Parses responses, so the I/O threads only do I/O
+     */
+    private final Executor decodeExecutor;
+    /**
+     * The client's own decode pool, null if the executor was supplied
+     */
+    private final ExecutorService decodePool;
+    /**
+     * The executor of the sync call the thread is making, if any, see {@link CallerExecutor}
+     */
+    private final ThreadLocal<CallerExecutor> callers = new ThreadLocal<>();
+    /**
+     * Set on the threads of the decode executor while they run a task
+     */
+    private final ThreadLocal<Boolean> decoding = new ThreadLocal<>();
+    private final int maxBulkInFlight;
+    private final boolean coalesceReads;
+    private final ConcurrentMap<Flight, SharedRead> inFlightReads = new ConcurrentHashMap<>();
+    private final EtcdClientMetrics metrics;
+    private final EtcdRetryPolicy retryPolicy;
+    private final EtcdHedger hedger;
+    private final EtcdLeaderFinder leaderFinder;
 
     public EtcdClient(URI baseUri) {
-        String uri = baseUri.toString();
-        if (!uri.endsWith("/")) {
-            uri += "/";
-            baseUri = URI.create(uri);
-        }
-        this.baseUri = baseUri;
-        RequestConfig requestConfig = RequestConfig.custom().build();
-        httpClient = HttpAsyncClients.custom().setDefaultRequestConfig(
-                requestConfig).build();
+        this(Collections.singletonList(baseUri));
+    }
+
+    /**
+     * Creates a client for an etcd cluster. Reads are spread across the healthy members and retried on another member
+     * if one fails; members that fail are skipped until they come back.
+     *
+     * @param members the client URLs of the cluster members
+     */
+    public EtcdClient(List<URI> members) {
+        this(new EtcdClientBuilder().members(members));
+    }
+
+    /**
+     * Creates a client from the builder's settings, see {@link EtcdClientBuilder#build()}
+     *
+     * @param builder
+     */
+    EtcdClient(EtcdClientBuilder builder) {
+        this.cluster = new EtcdCluster(builder.getMembers());
+        this.maxBulkInFlight = builder.getMaxBulkInFlight();
+        this.coalesceReads = builder.isCoalesceReads();
+        this.metrics = builder.getMetrics();
+        this.retryPolicy = builder.getRetryPolicy();
+        this.hedger = builder.buildHedger();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("etcd-client-scheduler-%d").build());
+        if (builder.getDecodeExecutor() != null) {
+            this.decodePool = null;
+            this.decodeExecutor = markDecoding(builder.getDecodeExecutor());
+        } else {
+            this.decodePool = builder.buildDecodePool();
+            this.decodeExecutor = markDecoding(decodePool);
+        }
+        this.watchRequestConfig = builder.buildWatchRequestConfig();
+        httpClient = builder.buildHttpClient();
         httpClient.start();
+        this.blockingClient = builder.buildBlockingHttpClient();
+        this.leaderFinder = new EtcdLeaderFinder(cluster, httpClient, builder.buildRequestConfig());
+        if (builder.isSeparateWatchPool()) {
+            watchClient = builder.buildWatchHttpClient();
+            watchClient.start();
+        } else {
+            watchClient = httpClient;
+        }
     }
 
     /**
@@ -82,22 +198,92 @@ public class EtcdClient implements Closeable {
      * @throws com.cvent.etcd.EtcdClientException
      */
     public EtcdResult get(String key, boolean recursive) throws EtcdClientException {
-        String suffix = "";
-        if (recursive) {
-            suffix += "?recursive=true";
-        }
-        
-        URI uri = buildKeyUri("v2/keys", key, suffix);
+        return get(key, EtcdReadOptions.LOCAL.recursive(recursive));
+    }
+
+    /**
+     * Retrieves a key without blocking. The future yields null if the key is not found.
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> getAsync(String key) throws EtcdClientException {
+        return getAsync(key, false);
+    }
+
+    /**
+     * Retrieves a key without blocking. The future yields null if the key is not found. If turned on with
+     * {@link EtcdClientBuilder#coalesceReads(boolean)}, concurrent reads of the same key with the same flags share one
+     * request and one {@link EtcdResult}, which must then be treated as read-only.
+     *
+     * @param key
+     * @param recursive
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> getAsync(String key, boolean recursive) throws EtcdClientException {
+        return getAsync(key, EtcdReadOptions.LOCAL.recursive(recursive));
+    }
+
+    /**
+     * Retrieves a key with the given consistency. Returns null if not found.
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult get(String key, EtcdReadOptions options) throws EtcdClientException {
+        return execute(getCall(key, options).keyNotFoundAsNull());
+    }
+
+    /**
+     * Retrieves a key with the given consistency without blocking. The future yields null if the key is not found.
+     * Local reads go to any member and may be coalesced, see {@link #getAsync(String, boolean)}; quorum reads go to
+     * the leader and are never shared.
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> getAsync(String key, EtcdReadOptions options) throws EtcdClientException {
+        return executeAsync(getCall(key, options).keyNotFoundAsNull());
+    }
+
+    /**
+     * Reads a key like {@link #get(String, EtcdReadOptions)}, except that a missing key yields etcd's error rather than
+     * null. Either way the result carries the index of the read, which a watch can then start right after.
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    EtcdResult getWithIndex(String key, EtcdReadOptions options) throws EtcdClientException {
+        return execute(getCall(key, options));
+    }
+
+    /**
+     * Reads a key like {@link #getAsync(String, EtcdReadOptions)}, except that a missing key yields etcd's error rather
+     * than null. Either way the result carries the index of the read, which a watch can then start right after.
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    ListenableFuture<EtcdResult> getWithIndexAsync(String key, EtcdReadOptions options) throws EtcdClientException {
+        return executeAsync(getCall(key, options));
+    }
+
+    private KeyCall getCall(String key, EtcdReadOptions options) {
+        URI uri = buildKeyUri("v2/keys", key, options.toQuery());
         HttpGet request = new HttpGet(uri);
 
-        EtcdResult result = syncExecute(request, new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND},
-                EtcdStatusCode.EcodeKeyNotFound.value());
-        if (result.isError()) {
-            if (result.getErrorCode() == EtcdStatusCode.EcodeKeyNotFound.value()) {
-                return null;
-            }
-        }
-        return result;
+        return new KeyCall(EtcdOperation.GET, request, new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND},
+                EtcdStatusCode.EcodeKeyNotFound.value()).read(options);
     }
 
     /**
@@ -108,10 +294,47 @@ public class EtcdClient implements Closeable {
      * @throws com.cvent.etcd.EtcdClientException
      */
     public EtcdResult delete(String key) throws EtcdClientException {
-        URI uri = buildKeyUri("v2/keys", key, "");
+        return execute(deleteCall(key, false));
+    }
+
+    /**
+     * Deletes the given key without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> deleteAsync(String key) throws EtcdClientException {
+        return executeAsync(deleteCall(key, false));
+    }
+
+    private KeyCall deleteCall(String key, boolean recursive) {
+        URI uri = buildKeyUri("v2/keys", key, recursive ? "?recursive=true" : "");
         HttpDelete request = new HttpDelete(uri);
 
-        return syncExecute(request, new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND});
+        return new KeyCall(EtcdOperation.DELETE, request, new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND});
+    }
+
+    /**
+     * Deletes the given key or directory along with everything below it
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult deleteRecursive(String key) throws EtcdClientException {
+        return execute(deleteCall(key, true));
+    }
+
+    /**
+     * Deletes the given key or directory along with everything below it, without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> deleteRecursiveAsync(String key) throws EtcdClientException {
+        return executeAsync(deleteCall(key, true));
     }
 
     /**
@@ -136,166 +359,1056 @@ public class EtcdClient implements Closeable {
      * @throws com.cvent.etcd.EtcdClientException
      */
     public EtcdResult set(String key, String value, Integer ttl) throws EtcdClientException {
-        List<BasicNameValuePair> data = Lists.newArrayList();
-        data.add(new BasicNameValuePair("value", value));
+        return execute(setCall(key, value, ttl));
+    }
+
+    /**
+     * Sets a key to a new value without blocking
+     *
+     * @param key
+     * @param value
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> setAsync(String key, String value) throws EtcdClientException {
+        return setAsync(key, value, null);
+    }
+
+    /**
+     * Sets a key to a new value with an (optional) ttl without blocking
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> setAsync(String key, String value, Integer ttl) throws EtcdClientException {
+        return executeAsync(setCall(key, value, ttl));
+    }
+
+    private KeyCall setCall(String key, String value, Integer ttl) {
+        EtcdForm data = new EtcdForm().add("value", value);
         if (ttl != null) {
-            data.add(new BasicNameValuePair("ttl", Integer.toString(ttl)));
+            data.add("ttl", Integer.toString(ttl));
         }
 
-        return set0(key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_CREATED});
+        return putCall(EtcdOperation.SET, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_CREATED});
     }
 
     /**
-     * Creates a directory
+     * Resets the TTL of an existing key without sending or changing its value. Watchers are not told about the
+     * refresh. Needs etcd 2.3 or later.
+     *
+     * @param key
+     * @param ttl
+     * @return the result, or null if the key does not exist, e.g. because it has already expired
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult refresh(String key, int ttl) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(refreshAsync(key, ttl));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Resets the TTL of an existing key without blocking, see {@link #refresh(String, int)}. The future yields null if
+     * the key does not exist.
      *
      * @param key
+     * @param ttl
      * @return
      * @throws com.cvent.etcd.EtcdClientException
      */
-    public EtcdResult createDirectory(String key) throws EtcdClientException {
-        List<BasicNameValuePair> data = Lists.newArrayList();
-        data.add(new BasicNameValuePair("dir", "true"));
-        return set0(key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_CREATED});
+    public ListenableFuture<EtcdResult> refreshAsync(String key, int ttl) throws EtcdClientException {
+        EtcdForm data = new EtcdForm().add("ttl", Integer.toString(ttl)).add("refresh", "true")
+                .add("prevExist", "true");
+
+        ListenableFuture<EtcdResult> result = set0(EtcdOperation.SET, key, data,
+                new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND}, EtcdStatusCode.EcodeKeyNotFound.value());
+        return Futures.transform(result, KEY_NOT_FOUND_AS_NULL);
     }
 
     /**
-     * Lists a directory
+     * Sets a key to a binary value. etcd stores values as strings, so the bytes must be valid UTF-8 to be read back
+     * unchanged; they are percent-encoded straight into the request body without going through a String.
      *
      * @param key
+     * @param value
      * @return
      * @throws com.cvent.etcd.EtcdClientException
      */
-    public List<EtcdNode> listDirectory(String key) throws EtcdClientException {
-        EtcdResult result = get(key + "/");
-        if (result == null || result.getNode() == null) {
-            return null;
+    public EtcdResult setBytes(String key, byte[] value) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(setBytesAsync(key, ByteBuffer.wrap(value), null));
+        } finally {
+            caller.exit();
         }
-        return result.getNode().getNodes();
     }
 
     /**
-     * Delete a directory
+     * Sets a key to a binary value with an (optional) ttl
      *
      * @param key
+     * @param value
+     * @param ttl
      * @return
      * @throws com.cvent.etcd.EtcdClientException
+     * @see #setBytes(String, byte[])
      */
-    public EtcdResult deleteDirectory(String key) throws EtcdClientException {
-        URI uri = buildKeyUri("v2/keys", key, "?dir=true");
-        HttpDelete request = new HttpDelete(uri);
-        return syncExecute(request, new int[]{HttpStatus.SC_ACCEPTED});
+    public EtcdResult setBytes(String key, byte[] value, Integer ttl) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(setBytesAsync(key, ByteBuffer.wrap(value), ttl));
+        } finally {
+            caller.exit();
+        }
     }
 
     /**
-     * Sets a key to a new value, if the value is a specified value
+     * Sets a key to the remaining bytes of the given buffer, with an (optional) ttl, without blocking. The buffer's
+     * position is left untouched.
      *
      * @param key
-     * @param prevValue
      * @param value
+     * @param ttl
      * @return
      * @throws com.cvent.etcd.EtcdClientException
+     * @see #setBytes(String, byte[])
      */
-    public EtcdResult cas(String key, String prevValue, String value) throws EtcdClientException {
-        List<BasicNameValuePair> data = Lists.newArrayList();
-        data.add(new BasicNameValuePair("value", value));
-        data.add(new BasicNameValuePair("prevValue", prevValue));
+    public ListenableFuture<EtcdResult> setBytesAsync(String key, ByteBuffer value, Integer ttl)
+            throws EtcdClientException {
+        EtcdForm data = new EtcdForm(value.remaining() + 32).add("value", value);
+        if (ttl != null) {
+            data.add("ttl", Integer.toString(ttl));
+        }
 
-        return set0(key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_PRECONDITION_FAILED},
-                EtcdStatusCode.EcodeTestFailed.value());
+        return set0(EtcdOperation.SET, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_CREATED});
     }
 
     /**
-     * Watches the given subtree
+     * Gets the value of a key as UTF-8 bytes, decoded from the response without an intermediate String
+     *
+     * @param key
+     * @return the value, or null if the key is not found or is a directory
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public byte[] getBytes(String key) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(getBytesAsync(key));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Gets the value of a key as UTF-8 bytes without blocking
      *
      * @param key
      * @return
      * @throws com.cvent.etcd.EtcdClientException
+     * @see #getBytes(String)
      */
-    public ListenableFuture<EtcdResult> watch(String key) throws EtcdClientException {
-        return watch(key, null, false);
+    public ListenableFuture<byte[]> getBytesAsync(String key) throws EtcdClientException {
+        URI uri = buildKeyUri("v2/keys", key, "");
+        HttpGet request = new HttpGet(uri);
+
+        ListenableFuture<EtcdResult> result = asyncExecuteRead(request, true,
+                new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND}, EtcdStatusCode.EcodeKeyNotFound.value());
+        return Futures.transform(result, new AsyncFunction<EtcdResult, byte[]>() {
+            @Override
+            public ListenableFuture<byte[]> apply(EtcdResult result) throws Exception {
+                if (result == null || result.isError() || result.getNode() == null) {
+                    return Futures.immediateFuture(null);
+                }
+                return Futures.immediateFuture(result.getNode().getValueBytes());
+            }
+        });
     }
 
     /**
-     * Watches the given subtree
+     * Creates a directory
      *
      * @param key
-     * @param index
-     * @param recursive
      * @return
      * @throws com.cvent.etcd.EtcdClientException
      */
-    public ListenableFuture<EtcdResult> watch(String key, Long index, boolean recursive) throws EtcdClientException {
-        String suffix = "?wait=true";
-        if (index != null) {
-            suffix += "&waitIndex=" + index;
-        }
-        if (recursive) {
-            suffix += "&recursive=true";
+    public EtcdResult createDirectory(String key) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(createDirectoryAsync(key));
+        } finally {
+            caller.exit();
         }
-        URI uri = buildKeyUri("v2/keys", key, suffix);
+    }
 
-        HttpGet request = new HttpGet(uri);
+    /**
+     * Creates a directory without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> createDirectoryAsync(String key) throws EtcdClientException {
+        EtcdForm data = new EtcdForm().add("dir", "true");
+        return set0(EtcdOperation.SET, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_CREATED});
+    }
 
-        return asyncExecute(request, new int[]{HttpStatus.SC_OK});
+    /**
+     * Creates a key with a unique, increasing name in the given directory, e.g. to queue up behind the keys that are
+     * already there
+     *
+     * @param dir
+     * @param value
+     * @param ttl the TTL of the new key, or null for none
+     * @return the result, whose node is the new key
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult createInOrder(String dir, String value, Integer ttl) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(createInOrderAsync(dir, value, ttl));
+        } finally {
+            caller.exit();
+        }
     }
 
     /**
-     * Gets the etcd version
+     * Creates a key with a unique, increasing name in the given directory without blocking
      *
+     * @param dir
+     * @param value
+     * @param ttl the TTL of the new key, or null for none
      * @return
      * @throws com.cvent.etcd.EtcdClientException
      */
-    public String getVersion() throws EtcdClientException {
-        URI uri = baseUri.resolve("version");
+    public ListenableFuture<EtcdResult> createInOrderAsync(String dir, String value, Integer ttl)
+            throws EtcdClientException {
+        EtcdForm data = new EtcdForm().add("value", value);
+        if (ttl != null) {
+            data.add("ttl", Integer.toString(ttl));
+        }
 
-        HttpGet request = new HttpGet(uri);
+        HttpPost request = new HttpPost(buildKeyUri("v2/keys", dir, ""));
+        request.setEntity(data.toEntity());
 
-        // Technically not JSON, but it'll work
-        // This call is the odd one out
-        JsonResponse s = syncExecuteJson(request, HttpStatus.SC_OK);
-        if (s.httpStatusCode != HttpStatus.SC_OK) {
-            throw new EtcdClientException("Error while fetching versions", s.httpStatusCode);
+        return asyncExecute(EtcdOperation.SET, request, new int[]{HttpStatus.SC_CREATED});
+    }
+
+    /**
+     * Lists a directory
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public List<EtcdNode> listDirectory(String key) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(listDirectoryAsync(key));
+        } finally {
+            caller.exit();
         }
-        return s.json;
     }
 
-    private EtcdResult set0(String key, List<BasicNameValuePair> data, int[] httpErrorCodes, int... expectedErrorCodes)
+    /**
+     * Lists a directory without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<List<EtcdNode>> listDirectoryAsync(String key) throws EtcdClientException {
+        return listDirectoryAsync(key, EtcdReadOptions.LOCAL);
+    }
+
+    /**
+     * Lists a directory with the given consistency
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public List<EtcdNode> listDirectory(String key, EtcdReadOptions options) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(listDirectoryAsync(key, options));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Lists a directory with the given consistency without blocking
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<List<EtcdNode>> listDirectoryAsync(String key, EtcdReadOptions options)
+            throws EtcdClientException {
+        return Futures.transform(getAsync(key + "/", options), new AsyncFunction<EtcdResult, List<EtcdNode>>() {
+            @Override
+            public ListenableFuture<List<EtcdNode>> apply(EtcdResult result) throws Exception {
+                if (result == null || result.getNode() == null) {
+                    return Futures.immediateFuture(null);
+                }
+                return Futures.immediateFuture(result.getNode().getNodes());
+            }
+        });
+    }
+
+    /**
+     * Delete a directory
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult deleteDirectory(String key) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(deleteDirectoryAsync(key));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Delete a directory without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> deleteDirectoryAsync(String key) throws EtcdClientException {
+        URI uri = buildKeyUri("v2/keys", key, "?dir=true");
+        HttpDelete request = new HttpDelete(uri);
+        return asyncExecute(EtcdOperation.DELETE, request, new int[]{HttpStatus.SC_OK, HttpStatus.SC_ACCEPTED});
+    }
+
+    /**
+     * Sets a key to a new value, if the value is a specified value
+     *
+     * @param key
+     * @param prevValue
+     * @param value
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult cas(String key, String prevValue, String value) throws EtcdClientException {
+        return execute(casCall(key, prevValue, value));
+    }
+
+    /**
+     * Sets a key to a new value, if the value is a specified value, without blocking
+     *
+     * @param key
+     * @param prevValue
+     * @param value
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> casAsync(String key, String prevValue, String value)
+            throws EtcdClientException {
+        return executeAsync(casCall(key, prevValue, value));
+    }
+
+    private KeyCall casCall(String key, String prevValue, String value) {
+        EtcdForm data = new EtcdForm().add("value", value).add("prevValue", prevValue);
+
+        return putCall(EtcdOperation.CAS, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_PRECONDITION_FAILED},
+                EtcdStatusCode.EcodeTestFailed.value());
+    }
+
+    /**
+     * Sets a key to a new value, if it has not been modified since the given index. Unlike
+     * {@link #cas(String, String, String)} the old value does not have to be sent again.
+     *
+     * @param key
+     * @param prevIndex the modifiedIndex of the node the new value is based on
+     * @param value
+     * @return the result, which has error {@link EtcdStatusCode#EcodeTestFailed} if the key has been modified since
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult casByIndex(String key, long prevIndex, String value) throws EtcdClientException {
+        return execute(casByIndexCall(key, prevIndex, value));
+    }
+
+    /**
+     * Sets a key to a new value, if it has not been modified since the given index, without blocking
+     *
+     * @param key
+     * @param prevIndex
+     * @param value
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> casByIndexAsync(String key, long prevIndex, String value)
+            throws EtcdClientException {
+        return executeAsync(casByIndexCall(key, prevIndex, value));
+    }
+
+    private KeyCall casByIndexCall(String key, long prevIndex, String value) {
+        EtcdForm data = new EtcdForm().add("value", value).add("prevIndex", Long.toString(prevIndex));
+
+        return putCall(EtcdOperation.CAS, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_PRECONDITION_FAILED},
+                EtcdStatusCode.EcodeTestFailed.value());
+    }
+
+    /**
+     * Sets a key with an (optional) ttl, if it does not exist yet
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @return the result, which has error {@link EtcdStatusCode#EcodeNodeExist} if the key already exists
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult create(String key, String value, Integer ttl) throws EtcdClientException {
+        return execute(createCall(key, value, ttl));
+    }
+
+    /**
+     * Sets a key with an (optional) ttl, if it does not exist yet, without blocking
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> createAsync(String key, String value, Integer ttl)
+            throws EtcdClientException {
+        return executeAsync(createCall(key, value, ttl));
+    }
+
+    private KeyCall createCall(String key, String value, Integer ttl) {
+        EtcdForm data = new EtcdForm().add("value", value).add("prevExist", "false");
+        if (ttl != null) {
+            data.add("ttl", Integer.toString(ttl));
+        }
+
+        return putCall(EtcdOperation.CAS, key, data,
+                new int[]{HttpStatus.SC_CREATED, HttpStatus.SC_PRECONDITION_FAILED},
+                EtcdStatusCode.EcodeNodeExist.value());
+    }
+
+    /**
+     * Sets a key with an (optional) ttl, if it already exists
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @return the result, or null if the key does not exist
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult replace(String key, String value, Integer ttl) throws EtcdClientException {
+        return execute(replaceCall(key, value, ttl));
+    }
+
+    /**
+     * Sets a key with an (optional) ttl, if it already exists, without blocking. The future yields null if the key
+     * does not exist.
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> replaceAsync(String key, String value, Integer ttl)
+            throws EtcdClientException {
+        return executeAsync(replaceCall(key, value, ttl));
+    }
+
+    private KeyCall replaceCall(String key, String value, Integer ttl) {
+        EtcdForm data = new EtcdForm().add("value", value).add("prevExist", "true");
+        if (ttl != null) {
+            data.add("ttl", Integer.toString(ttl));
+        }
+
+        return putCall(EtcdOperation.CAS, key, data, new int[]{HttpStatus.SC_OK, HttpStatus.SC_NOT_FOUND},
+                EtcdStatusCode.EcodeKeyNotFound.value()).keyNotFoundAsNull();
+    }
+
+    /**
+     * Read-modify-write of a key: reads it, applies the function to its value and writes the outcome back with a
+     * compare-and-swap on the modifiedIndex that was read. When another writer gets in first the key is read again
+     * and the function applied to the fresh value, after a short jittered backoff, up to a bounded number of attempts.
+     *
+     * @param key
+     * @param function maps the current value, or null if the key does not exist, to the new value, or to null to
+     * leave the key as it is. It may be called several times, so it must not have side effects.
+     * @return the result of the write, or of the read if the function returned null
+     * @throws com.cvent.etcd.EtcdClientException if the key could not be updated, e.g. because of too much contention
+     */
+    public EtcdResult update(String key, Function<String, String> function) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(updateAsync(key, function));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Read-modify-write of a key without blocking, see {@link #update(String, Function)}. The function is called on
+     * the client's decode threads, so it must not block.
+     *
+     * @param key
+     * @param function
+     * @return
+     */
+    public ListenableFuture<EtcdResult> updateAsync(String key, Function<String, String> function) {
+        return new Update(key, function).start();
+    }
+
+    /**
+     * Retrieves many keys, keeping a bounded number of requests in flight. Keys that are not found map to null.
+     *
+     * @param keys
+     * @return a result or an error for every key
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdBulkResult getAll(Collection<String> keys) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(getAllAsync(keys));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Retrieves many keys without blocking, keeping a bounded number of requests in flight
+     *
+     * @param keys
+     * @return a result or an error for every key
+     */
+    public ListenableFuture<EtcdBulkResult> getAllAsync(Collection<String> keys) {
+        return new EtcdBulkPipeline<>(keys, maxBulkInFlight, new KeyOperation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) throws EtcdClientException {
+                return getAsync(key);
+            }
+        }).run();
+    }
+
+    /**
+     * Sets many keys, keeping a bounded number of requests in flight
+     *
+     * @param values the new values by key
+     * @return a result or an error for every key
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdBulkResult setAll(Map<String, String> values) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(setAllAsync(values, null));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Sets many keys with an (optional) ttl, without blocking, keeping a bounded number of requests in flight
+     *
+     * @param values the new values by key
+     * @param ttl
+     * @return a result or an error for every key
+     */
+    public ListenableFuture<EtcdBulkResult> setAllAsync(Map<String, String> values, final Integer ttl) {
+        return new EtcdBulkPipeline<>(values.entrySet(), maxBulkInFlight,
+                new EtcdBulkPipeline.Operation<Map.Entry<String, String>>() {
+                    @Override
+                    public String key(Map.Entry<String, String> entry) {
+                        return entry.getKey();
+                    }
+
+                    @Override
+                    public ListenableFuture<EtcdResult> start(Map.Entry<String, String> entry)
+                            throws EtcdClientException {
+                        return setAsync(entry.getKey(), entry.getValue(), ttl);
+                    }
+                }).run();
+    }
+
+    /**
+     * Deletes many keys, keeping a bounded number of requests in flight
+     *
+     * @param keys
+     * @return a result or an error for every key
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdBulkResult deleteAll(Collection<String> keys) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(deleteAllAsync(keys));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Deletes many keys without blocking, keeping a bounded number of requests in flight
+     *
+     * @param keys
+     * @return a result or an error for every key
+     */
+    public ListenableFuture<EtcdBulkResult> deleteAllAsync(Collection<String> keys) {
+        return new EtcdBulkPipeline<>(keys, maxBulkInFlight, new KeyOperation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) throws EtcdClientException {
+                return deleteAsync(key);
+            }
+        }).run();
+    }
+
+    /**
+     * Watches the given subtree
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> watch(String key) throws EtcdClientException {
+        return watch(key, null, false);
+    }
+
+    /**
+     * Watches the given subtree
+     *
+     * @param key
+     * @param index
+     * @param recursive
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> watch(String key, Long index, boolean recursive) throws EtcdClientException {
+        String suffix = "?wait=true";
+        if (index != null) {
+            suffix += "&waitIndex=" + index;
+        }
+        if (recursive) {
+            suffix += "&recursive=true";
+        }
+        URI uri = buildKeyUri("v2/keys", key, suffix);
+
+        HttpGet request = new HttpGet(uri);
+        request.setConfig(watchRequestConfig);
+
+        return asyncExecute(watchClient, EtcdOperation.WATCH, request, new int[]{HttpStatus.SC_OK});
+    }
+
+    /**
+     * Watches the given key or subtree continuously, delivering every change to the listener in order until the
+     * returned watcher is closed. See {@link EtcdWatcher}.
+     *
+     * @param key
+     * @param index the index of the first event wanted, or null to start with the next change
+     * @param recursive
+     * @param listener
+     * @return the running watcher
+     */
+    public EtcdWatcher watch(String key, Long index, boolean recursive, EtcdWatchListener listener) {
+        return new EtcdWatcher(this, key, index, recursive, listener).start();
+    }
+
+    /**
+     * Gets the etcd version
+     *
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public String getVersion() throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(getVersionAsync());
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Gets the etcd version without blocking
+     *
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<String> getVersionAsync() throws EtcdClientException {
+        URI uri = URI.create("version");
+
+        HttpGet request = new HttpGet(uri);
+
+        // Technically not JSON, but it'll work
+        // This call is the odd one out
+        ListenableFuture<JsonResponse> json = asyncExecuteJson(request, new int[]{HttpStatus.SC_OK});
+        return Futures.transform(json, new AsyncFunction<JsonResponse, String>() {
+            @Override
+            public ListenableFuture<String> apply(JsonResponse s) throws Exception {
+                if (s.httpStatusCode != HttpStatus.SC_OK) {
+                    throw new EtcdClientException("Error while fetching versions", s.httpStatusCode);
+                }
+                return Futures.immediateFuture(s.json);
+            }
+        });
+    }
+
+    private ListenableFuture<EtcdResult> set0(EtcdOperation operation, String key, EtcdForm data,
+            int[] httpErrorCodes, int... expectedErrorCodes) throws EtcdClientException {
+        return executeAsync(putCall(operation, key, data, httpErrorCodes, expectedErrorCodes));
+    }
+
+    private KeyCall putCall(EtcdOperation operation, String key, EtcdForm data, int[] httpErrorCodes,
+            int... expectedErrorCodes) {
+        URI uri = buildKeyUri("v2/keys", key, "");
+
+        HttpPut request = new HttpPut(uri);
+        request.setEntity(data.toEntity());
+
+        return new KeyCall(operation, request, httpErrorCodes, expectedErrorCodes);
+    }
+
+    /**
+     * Walks a whole subtree, handing its nodes to the visitor one at a time as they are parsed off the response, see
+     * {@link EtcdNodeVisitor}. Unlike a recursive {@link #get(String, boolean)} the tree is never built, and the
+     * response is streamed through a fixed size buffer, so memory use does not depend on the size of the subtree.
+     *
+     * The visitor runs on the calling thread. While it is busy the connection stops reading, so a visitor that takes
+     * a long time over a node may run into the socket timeout.
+     *
+     * A read that fails in transit before any node has reached the visitor is retried on another member as the retry
+     * policy says, sleeping on the calling thread. Once the visitor has seen a node a failure is thrown, as the nodes
+     * it has seen could not be taken back. Reads are not hedged.
+     *
+     * @param key
+     * @param visitor
+     * @return the result of the read, with its index and the root node without its children, or null if the key is
+     * not found. If the visitor stopped the traversal the result has no node.
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult traverse(String key, EtcdNodeVisitor visitor) throws EtcdClientException {
+        URI path = buildKeyUri("v2/keys", key, "?recursive=true");
+        TrackingVisitor tracking = new TrackingVisitor(visitor);
+        metrics.requestStarted(EtcdOperation.GET, 0);
+        long start = System.nanoTime();
+        EtcdCluster.Member member = cluster.selectForRead();
+        int failures = 0;
+        while (true) {
+            HttpGet request = new HttpGet(member.resolve(path));
+            EtcdStreamingConsumer consumer = new EtcdStreamingConsumer();
+            Future<HttpResponse> future = httpClient.execute(HttpAsyncMethods.create(request), consumer, null);
+            // Set if the request failed in transit, otherwise a response arrived however the traversal ended
+            EtcdClientException failure = null;
+            long delay = -1;
+            try {
+                return traverse(consumer, member, tracking);
+            } catch (EtcdClientException e) {
+                if (consumer.isFailed()) {
+                    cluster.markDown(member);
+                    failure = e;
+                    delay = tracking.visited ? -1 : retryPolicy.retryDelayMillis(++failures, e);
+                }
+                if (delay < 0) {
+                    throw e;
+                }
+            } finally {
+                // Abandons the rest of the response if the visitor stopped early or something failed
+                future.cancel(true);
+                if (delay < 0) {
+                    if (failure != null) {
+                        metrics.requestFailed(EtcdOperation.GET, System.nanoTime() - start, failure);
+                    } else {
+                        metrics.requestCompleted(EtcdOperation.GET, System.nanoTime() - start);
+                    }
+                }
+            }
+
+            LOGGER.debug("Traversal of {} on etcd member {} failed, retrying on another member in {}ms", key, member,
+                    delay, failure);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    metrics.requestFailed(EtcdOperation.GET, System.nanoTime() - start, ie);
+                    throw new EtcdClientException("Interrupted during request", ie);
+                }
+            }
+            member = cluster.selectForRead();
+        }
+    }
+
+    /**
+     * Reads the response of one attempt at a traversal
+     */
+    private EtcdResult traverse(EtcdStreamingConsumer consumer, EtcdCluster.Member member, EtcdNodeVisitor visitor)
+            throws EtcdClientException {
+        HttpResponse response = syncGet(consumer.getHead());
+        cluster.markUp(member);
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NOT_FOUND
+                && statusCode != HttpStatus.SC_BAD_REQUEST) {
+            throw new EtcdClientException("Error response from etcd: "
+                    + response.getStatusLine().getReasonPhrase(), statusCode);
+        }
+
+        long parseStart = System.nanoTime();
+        CountingInputStream content = new CountingInputStream(consumer.getContent());
+        EtcdResult result;
+        try {
+            result = EtcdResultParser.parse(EtcdContentEncoding.decode(response, content), visitor);
+        } catch (IOException e) {
+            // A failed request ends the stream early, report why rather than the truncated json
+            throw new EtcdClientException("Error reading response from etcd",
+                    consumer.getException() != null ? consumer.getException() : e);
+        }
+        metrics.responseParsed(EtcdOperation.GET, content.getCount(), System.nanoTime() - parseStart);
+
+        if (result != null && result.isError()) {
+            metrics.etcdError(EtcdOperation.GET, result.getErrorCode());
+            if (result.getErrorCode() == EtcdStatusCode.EcodeKeyNotFound.value()) {
+                return null;
+            }
+            throw new EtcdClientException(result.getMessage(), result);
+        }
+        if (result != null) {
+            Header header = response.getFirstHeader(ETCD_INDEX_HEADER);
+            Integer index = header == null ? null : Ints.tryParse(header.getValue());
+            if (index != null) {
+                result.setIndex(index);
+            }
+        }
+        return result;
+    }
+
+    public EtcdResult listChildren(String key) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(listChildrenAsync(key));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Lists the children of the given key without blocking
+     *
+     * @param key
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> listChildrenAsync(String key) throws EtcdClientException {
+        return listChildrenAsync(key, EtcdReadOptions.LOCAL);
+    }
+
+    /**
+     * Lists the children of the given key with the given consistency
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public EtcdResult listChildren(String key, EtcdReadOptions options) throws EtcdClientException {
+        CallerExecutor caller = enterSync();
+        try {
+            return caller.await(listChildrenAsync(key, options));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Lists the children of the given key with the given consistency without blocking
+     *
+     * @param key
+     * @param options
+     * @return
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> listChildrenAsync(String key, EtcdReadOptions options)
+            throws EtcdClientException {
+        URI uri = buildKeyUri("v2/keys", key, "/" + options.toQuery());
+        HttpGet request = new HttpGet(uri);
+
+        return asyncExecuteRead(request, options, new int[]{HttpStatus.SC_OK});
+    }
+
+    /**
+     * Sends the call on the calling thread if the client has a blocking transport, and through the async client
+     * otherwise
+     */
+    private EtcdResult execute(KeyCall call) throws EtcdClientException {
+        if (blockingClient == null) {
+            CallerExecutor caller = enterSync();
+            try {
+                return caller.await(executeAsync(call));
+            } finally {
+                caller.exit();
+            }
+        }
+        EtcdResult result = syncExecute(call.operation, call.request, call.expectedHttpStatusCodes,
+                call.expectedErrorCodes);
+        return call.keyNotFoundAsNull ? keyNotFoundAsNull(result) : result;
+    }
+
+    private ListenableFuture<EtcdResult> executeAsync(KeyCall call) throws EtcdClientException {
+        ListenableFuture<EtcdResult> result;
+        if (call.readOptions != null) {
+            result = asyncExecuteRead((HttpGet) call.request, call.readOptions, call.expectedHttpStatusCodes,
+                    call.expectedErrorCodes);
+        } else {
+            result = asyncExecute(call.operation, call.request, call.expectedHttpStatusCodes,
+                    call.expectedErrorCodes);
+        }
+        return call.keyNotFoundAsNull ? Futures.transform(result, KEY_NOT_FOUND_AS_NULL) : result;
+    }
+
+    /**
+     * The blocking counterpart of {@link #asyncExecute}, the response is parsed on the calling thread
+     */
+    private EtcdResult syncExecute(EtcdOperation operation, HttpRequestBase request, int[] expectedHttpStatusCodes,
+            int... expectedErrorCodes) throws EtcdClientException {
+        boolean write = !HttpGet.METHOD_NAME.equals(request.getMethod());
+        String path = request.getURI().getRawPath();
+        HttpResponse httpResponse = syncExecuteHttp(operation, request);
+        if (write) {
+            forgetInFlightReads(path);
+        }
+        EtcdResult result = extractEtcdResult(operation, httpResponse, false, expectedHttpStatusCodes);
+        return checkEtcdResult(operation, result, expectedErrorCodes);
+    }
+
+    private ListenableFuture<EtcdResult> asyncExecute(EtcdOperation operation, HttpRequestBase request,
+            int[] expectedHttpStatusCodes, int... expectedErrorCodes)
+            throws EtcdClientException {
+        return asyncExecute(httpClient, operation, request, expectedHttpStatusCodes, expectedErrorCodes);
+    }
+
+    private ListenableFuture<EtcdResult> asyncExecute(CloseableHttpAsyncClient client, EtcdOperation operation,
+            HttpRequestBase request, int[] expectedHttpStatusCodes, int... expectedErrorCodes)
             throws EtcdClientException {
-        URI uri = buildKeyUri("v2/keys", key, "");
+        return asyncExecute(client, operation, request, false, expectedHttpStatusCodes, expectedErrorCodes);
+    }
 
-        HttpPut request = new HttpPut(uri);
+    private ListenableFuture<EtcdResult> asyncExecute(CloseableHttpAsyncClient client, EtcdOperation operation,
+            HttpRequestBase request, boolean binaryValues, int[] expectedHttpStatusCodes, int... expectedErrorCodes)
+            throws EtcdClientException {
+        return asyncExecute(client, operation, request, binaryValues, parseExecutor(), expectedHttpStatusCodes,
+                expectedErrorCodes);
+    }
 
-        UrlEncodedFormEntity entity = new UrlEncodedFormEntity(data, Charsets.UTF_8);
-        request.setEntity(entity);
+    private ListenableFuture<EtcdResult> asyncExecute(CloseableHttpAsyncClient client, final EtcdOperation operation,
+            HttpRequestBase request, final boolean binaryValues, Executor executor,
+            final int[] expectedHttpStatusCodes, final int... expectedErrorCodes) throws EtcdClientException {
+        final boolean write = !HttpGet.METHOD_NAME.equals(request.getMethod());
+        final String path = request.getURI().getRawPath();
+        ListenableFuture<HttpResponse> response = asyncExecuteHttp(client, operation, request);
+        return Futures.transform(response, new AsyncFunction<HttpResponse, EtcdResult>() {
+            @Override
+            public ListenableFuture<EtcdResult> apply(HttpResponse httpResponse) throws Exception {
+                if (write) {
+                    forgetInFlightReads(path);
+                }
+                EtcdResult result = extractEtcdResult(operation, httpResponse, binaryValues, expectedHttpStatusCodes);
+                return Futures.immediateFuture(checkEtcdResult(operation, result, expectedErrorCodes));
+            }
+        }, executor);
+    }
 
-        return syncExecute(request, httpErrorCodes, expectedErrorCodes);
+    /**
+     * Executes a read, sharing the request and its result with any identical read already in flight. Callers get their
+     * own future, so cancelling one does not affect the others.
+     */
+    private ListenableFuture<EtcdResult> asyncExecuteRead(HttpGet request, EtcdReadOptions options,
+            int[] expectedHttpStatusCodes, int... expectedErrorCodes) throws EtcdClientException {
+        if (options.getConsistency() == EtcdConsistency.QUORUM) {
+            // A read already in flight may have been served before a write that completed since, so sharing it would
+            // not be linearizable
+            return asyncExecute(httpClient, EtcdOperation.GET, request, false, expectedHttpStatusCodes,
+                    expectedErrorCodes);
+        }
+        return asyncExecuteRead(request, false, expectedHttpStatusCodes, expectedErrorCodes);
     }
 
-    public EtcdResult listChildren(String key) throws EtcdClientException {
-        URI uri = buildKeyUri("v2/keys", key, "/");
-        HttpGet request = new HttpGet(uri);
+    private ListenableFuture<EtcdResult> asyncExecuteRead(HttpGet request, boolean binaryValues,
+            int[] expectedHttpStatusCodes, int... expectedErrorCodes) throws EtcdClientException {
+        CallerExecutor caller = callers.get();
+        if (!coalesceReads || caller != null && caller.inCallback) {
+            // A sync read made from a callback must not wait on a shared read, whose parsing may be queued behind it
+            return asyncExecute(httpClient, EtcdOperation.GET, request, binaryValues, expectedHttpStatusCodes,
+                    expectedErrorCodes);
+        }
 
-        EtcdResult result = syncExecute(request, new int[]{HttpStatus.SC_OK});
-        return result;
+        final Flight flight = new Flight(request.getURI(), binaryValues);
+        SharedRead shared = inFlightReads.get(flight);
+        if (shared == null) {
+            final SharedRead leader = new SharedRead(parseExecutor());
+            shared = inFlightReads.putIfAbsent(flight, leader);
+            if (shared == null) {
+                shared = leader;
+                ListenableFuture<EtcdResult> result;
+                try {
+                    result = asyncExecute(httpClient, EtcdOperation.GET, request, binaryValues, leader,
+                            expectedHttpStatusCodes, expectedErrorCodes);
+                } catch (EtcdClientException e) {
+                    inFlightReads.remove(flight, leader);
+                    throw e;
+                }
+                Futures.addCallback(result, new com.google.common.util.concurrent.FutureCallback<EtcdResult>() {
+                    @Override
+                    public void onSuccess(EtcdResult result) {
+                        inFlightReads.remove(flight, leader);
+                        leader.future.set(result);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        inFlightReads.remove(flight, leader);
+                        leader.future.setException(t);
+                    }
+                });
+            } else if (caller != null) {
+                shared.offer(caller);
+            }
+        } else if (caller != null) {
+            shared.offer(caller);
+        }
+        return Futures.nonCancellationPropagating(shared.future);
     }
 
-    private ListenableFuture<EtcdResult> asyncExecute(HttpUriRequest request, int[] expectedHttpStatusCodes,
-            final int... expectedErrorCodes)
-            throws EtcdClientException {
-        ListenableFuture<JsonResponse> json = asyncExecuteJson(request, expectedHttpStatusCodes);
-        return Futures.transform(json, new AsyncFunction<JsonResponse, EtcdResult>() {
-            @Override
-            public ListenableFuture<EtcdResult> apply(JsonResponse json) throws Exception {
-                EtcdResult result = jsonToEtcdResult(json, expectedErrorCodes);
-                return Futures.immediateFuture(result);
+    /**
+     * Stops reads sent before a write to the given path from being shared with reads made after it completes. Only
+     * reads of the path itself and of the keys above and below it can see the write.
+     */
+    private void forgetInFlightReads(String path) {
+        if (inFlightReads.isEmpty()) {
+            return;
+        }
+        String written = Flight.trimSlash(path);
+        for (Flight flight : inFlightReads.keySet()) {
+            if (flight.path.equals(written) || flight.path.startsWith(written + "/")
+                    || written.startsWith(flight.path + "/")) {
+                inFlightReads.remove(flight);
             }
-        });
+        }
     }
 
-    private EtcdResult syncExecute(HttpUriRequest request, int[] expectedHttpStatusCodes, int... expectedErrorCodes)
-            throws EtcdClientException {
+    /**
+     * Blocks on the given future, the sync API is a thin wrapper over the async one
+     */
+    private static <T> T syncGet(ListenableFuture<T> future) throws EtcdClientException {
         try {
-            return asyncExecute(request, expectedHttpStatusCodes, expectedErrorCodes).get();
+            return future.get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
 
@@ -305,7 +1418,52 @@ public class EtcdClient implements Closeable {
         }
     }
 
-    private EtcdClientException unwrap(ExecutionException e) {
+    /**
+     * Starts a sync call on the calling thread, which then parses the responses of the requests made for the call.
+     * Blocking helpers built on the async API wait through it too, so that they can be called from callbacks.
+     */
+    CallerExecutor enterSync() {
+        CallerExecutor outer = callers.get();
+        CallerExecutor caller = new CallerExecutor(outer, outer != null || decoding.get() != null);
+        callers.set(caller);
+        return caller;
+    }
+
+    /**
+     * The executor to parse a response on: the thread of the sync call it was made for, otherwise the decode executor
+     */
+    Executor parseExecutor() {
+        CallerExecutor caller = callers.get();
+        return caller != null ? caller : decodeExecutor;
+    }
+
+    /**
+     * Marks the threads of the decode executor while they run a task, so that sync calls can tell they are made from a
+     * callback
+     */
+    private Executor markDecoding(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable task) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Boolean outer = decoding.get();
+                        decoding.set(Boolean.TRUE);
+                        try {
+                            task.run();
+                        } finally {
+                            if (outer == null) {
+                                decoding.remove();
+                            }
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private static EtcdClientException unwrap(ExecutionException e) {
         Throwable cause = e.getCause();
         if (cause instanceof EtcdClientException) {
             return (EtcdClientException) cause;
@@ -313,13 +1471,18 @@ public class EtcdClient implements Closeable {
         return new EtcdClientException("Error executing request", e);
     }
 
-    private EtcdResult jsonToEtcdResult(JsonResponse response, int... expectedErrorCodes) throws EtcdClientException {
-        if (response == null || response.json == null) {
+    private EtcdResult checkEtcdResult(EtcdOperation operation, EtcdResult result, int... expectedErrorCodes)
+            throws EtcdClientException {
+        if (result == null) {
             return null;
         }
-        EtcdResult result = parseEtcdResult(response.json);
 
         if (result.isError()) {
+            metrics.etcdError(operation, result.getErrorCode());
+            if (result.getErrorCode() == EtcdStatusCode.EcodeRaftInternal.value()
+                    || result.getErrorCode() == EtcdStatusCode.EcodeLeaderElect.value()) {
+                leaderFinder.refresh();
+            }
             if (!contains(expectedErrorCodes, result.getErrorCode())) {
                 throw new EtcdClientException(result.getMessage(), result);
             }
@@ -330,7 +1493,7 @@ public class EtcdClient implements Closeable {
     private EtcdResult parseEtcdResult(String json) throws EtcdClientException {
         EtcdResult result;
         try {
-            result = MAPPER.readValue(json, EtcdResult.class);
+            result = EtcdResultParser.parse(json);
         } catch (IOException e) {
             throw new EtcdClientException("Error parsing response from etcd", e);
         }
@@ -346,7 +1509,7 @@ public class EtcdClient implements Closeable {
         return false;
     }
 
-    private List<EtcdResult> syncExecuteList(HttpUriRequest request) throws EtcdClientException {
+    private List<EtcdResult> syncExecuteList(HttpRequestBase request) throws EtcdClientException {
         JsonResponse response = syncExecuteJson(request, HttpStatus.SC_OK);
         if (response.json == null) {
             return null;
@@ -364,7 +1527,7 @@ public class EtcdClient implements Closeable {
         }
     }
 
-    private JsonResponse syncExecuteJson(HttpUriRequest request, int... expectedHttpStatusCodes) throws
+    private JsonResponse syncExecuteJson(HttpRequestBase request, int... expectedHttpStatusCodes) throws
             EtcdClientException {
         try {
             return asyncExecuteJson(request, expectedHttpStatusCodes).get();
@@ -376,9 +1539,9 @@ public class EtcdClient implements Closeable {
         }
     }
 
-    private ListenableFuture<JsonResponse> asyncExecuteJson(HttpUriRequest request,
+    private ListenableFuture<JsonResponse> asyncExecuteJson(HttpRequestBase request,
             final int[] expectedHttpStatusCodes) throws EtcdClientException {
-        ListenableFuture<HttpResponse> response = asyncExecuteHttp(request);
+        ListenableFuture<HttpResponse> response = asyncExecuteHttp(httpClient, EtcdOperation.OTHER, request);
 
         return Futures.transform(response, new AsyncFunction<HttpResponse, JsonResponse>() {
             @Override
@@ -386,12 +1549,261 @@ public class EtcdClient implements Closeable {
                 JsonResponse json = extractJsonResponse(httpResponse, expectedHttpStatusCodes);
                 return Futures.immediateFuture(json);
             }
-        });
+        }, parseExecutor());
+    }
+
+    /**
+     * A scheduler for delayed work such as retries, shared by everything built on this client. Tasks must be short.
+     */
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
     }
 
     @Override
     public void close() throws IOException {
+        scheduler.shutdownNow();
         httpClient.close();
+        if (watchClient != httpClient) {
+            watchClient.close();
+        }
+        if (blockingClient != null) {
+            blockingClient.close();
+        }
+        if (decodePool != null) {
+            decodePool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the parsing of the responses to a sync call, and the callbacks chained to them, on the thread waiting for
+     * the call. A sync call made from a callback on the decode executor would otherwise wait for a thread of that
+     * executor, which never comes once every one of them is waiting the same way. Tasks that turn up after the call
+     * is over, e.g. for the remaining reads of a getAll that failed, go to the decode executor.
+     */
+    final class CallerExecutor implements Executor {
+
+        private final CallerExecutor outer;
+        /**
+         * Whether the call is made from a callback, i.e. on a decode thread or within another sync call
+         */
+        private final boolean inCallback;
+        private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        private boolean done;
+
+        CallerExecutor(CallerExecutor outer, boolean inCallback) {
+            this.outer = outer;
+            this.inCallback = inCallback;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!offer(task)) {
+                decodeExecutor.execute(task);
+            }
+        }
+
+        /**
+         * @return whether the task will be run by the waiting thread, false once the call is over
+         */
+        synchronized boolean offer(Runnable task) {
+            if (done) {
+                return false;
+            }
+            tasks.add(task);
+            return true;
+        }
+
+        /**
+         * Runs tasks on the calling thread until the future is done, then unwraps its outcome like {@link #syncGet}
+         */
+        <T> T await(ListenableFuture<T> future) throws EtcdClientException {
+            try {
+                runUntilDone(future, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new EtcdClientException("Interrupted during request", e);
+            }
+            return syncGet(future);
+        }
+
+        /**
+         * Runs tasks on the calling thread until the future is done or the timeout runs out
+         *
+         * @return whether the future is done
+         */
+        boolean runUntilDone(ListenableFuture<?> future, long timeout, TimeUnit unit) throws InterruptedException {
+            final Runnable wakeUp = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    tasks.add(wakeUp);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!future.isDone()) {
+                Runnable task = tasks.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (task == null) {
+                    return future.isDone();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Task failed on the thread of a sync call", e);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Ends the call, handing the thread back to any sync call it was made within
+         */
+        void exit() {
+            if (outer == null) {
+                callers.remove();
+            } else {
+                callers.set(outer);
+            }
+            List<Runnable> left = new ArrayList<>();
+            synchronized (this) {
+                done = true;
+                tasks.drainTo(left);
+            }
+            try {
+                for (Runnable task : left) {
+                    decodeExecutor.execute(task);
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("The client is closed, dropping the tasks left over by a sync call", e);
+            }
+        }
+    }
+
+    /**
+     * A coalesced read, parsed by one of the sync callers waiting for it if there is one, so that their threads do
+     * not sit idle while it waits for a decode thread. Otherwise it is parsed where the read that started it would be.
+     */
+    private final class SharedRead implements Executor {
+
+        private final SettableFuture<EtcdResult> future = SettableFuture.create();
+        private final Executor owner;
+        private final Queue<CallerExecutor> waiting = new ConcurrentLinkedQueue<>();
+
+        SharedRead(Executor owner) {
+            this.owner = owner;
+        }
+
+        void offer(CallerExecutor caller) {
+            waiting.add(caller);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            for (CallerExecutor caller = waiting.poll(); caller != null; caller = waiting.poll()) {
+                if (caller.offer(task)) {
+                    return;
+                }
+            }
+            owner.execute(task);
+        }
+    }
+
+    /**
+     * Identifies a coalesced read by its uri. Binary and string reads of a key parse the response differently, so they
+     * are not shared with each other.
+     */
+    private static final class Flight {
+
+        private final String path;
+        private final String id;
+
+        Flight(URI uri, boolean binaryValues) {
+            this.path = trimSlash(uri.getRawPath());
+            this.id = binaryValues ? "bytes:" + uri : uri.toString();
+        }
+
+        static String trimSlash(String path) {
+            return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Flight && id.equals(((Flight) obj).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+
+    /**
+     * Remembers whether the visitor of a traversal has been handed a node yet
+     */
+    private static final class TrackingVisitor implements EtcdNodeVisitor {
+
+        private final EtcdNodeVisitor visitor;
+        private boolean visited;
+
+        TrackingVisitor(EtcdNodeVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean visit(EtcdNode node) {
+            visited = true;
+            return visitor.visit(node);
+        }
+    }
+
+    /**
+     * A request on a key along with the answers it expects, so that the sync and async calls on the key share one
+     * definition and the sync one can be sent by either transport
+     */
+    private static final class KeyCall {
+
+        private final EtcdOperation operation;
+        private final HttpRequestBase request;
+        private final int[] expectedHttpStatusCodes;
+        private final int[] expectedErrorCodes;
+        /**
+         * Set for reads, which the async client may coalesce
+         */
+        private EtcdReadOptions readOptions;
+        private boolean keyNotFoundAsNull;
+
+        KeyCall(EtcdOperation operation, HttpRequestBase request, int[] expectedHttpStatusCodes,
+                int... expectedErrorCodes) {
+            this.operation = operation;
+            this.request = request;
+            this.expectedHttpStatusCodes = expectedHttpStatusCodes;
+            this.expectedErrorCodes = expectedErrorCodes;
+        }
+
+        KeyCall read(EtcdReadOptions options) {
+            this.readOptions = options;
+            return this;
+        }
+
+        KeyCall keyNotFoundAsNull() {
+            this.keyNotFoundAsNull = true;
+            return this;
+        }
+    }
+
+    /**
+     * A bulk operation over plain keys
+     */
+    private abstract static class KeyOperation implements EtcdBulkPipeline.Operation<String> {
+
+        @Override
+        public String key(String key) {
+            return key;
+        }
     }
 
     /**
@@ -419,7 +1831,7 @@ public class EtcdClient implements Closeable {
 
             if (httpResponse.getEntity() != null) {
                 try {
-                    json = EntityUtils.toString(httpResponse.getEntity());
+                    json = EntityUtils.toString(EtcdContentEncoding.decode(httpResponse));
                 } catch (IOException e) {
                     throw new EtcdClientException("Error reading response", e);
                 }
@@ -438,43 +1850,391 @@ public class EtcdClient implements Closeable {
         }
     }
 
-    private URI buildKeyUri(String prefix, String key, String suffix) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(prefix);
-        if (key.startsWith("/")) {
-            key = key.substring(1);
-        }
-        for (String token : Splitter.on('/').split(key)) {
-            sb.append("/");
-            sb.append(urlEscape(token));
+    /**
+     * Parses the response body straight off the entity stream, without copying it into a String first.
+     */
+    private EtcdResult extractEtcdResult(EtcdOperation operation, HttpResponse httpResponse, boolean binaryValues,
+            int[] expectedHttpStatusCodes) throws EtcdClientException {
+        try {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            HttpEntity entity = httpResponse.getEntity();
+
+            if (!contains(expectedHttpStatusCodes, statusCode)) {
+                if (statusCode != HttpStatus.SC_BAD_REQUEST || entity == null) {
+                    throw new EtcdClientException("Error response from etcd: " + statusLine.getReasonPhrase(),
+                            statusCode);
+                }
+            }
+
+            if (entity == null) {
+                return null;
+            }
+
+            try {
+                long start = System.nanoTime();
+                // Counts the bytes as received, before they are inflated
+                CountingInputStream content = new CountingInputStream(entity.getContent());
+                InputStream in = EtcdContentEncoding.decode(httpResponse, content);
+                try {
+                    EtcdResult result = EtcdResultParser.parse(in, binaryValues);
+                    metrics.responseParsed(operation, content.getCount(), System.nanoTime() - start);
+                    if (result != null && !result.isError()) {
+                        Header header = httpResponse.getFirstHeader(ETCD_INDEX_HEADER);
+                        Integer index = header == null ? null : Ints.tryParse(header.getValue());
+                        if (index != null) {
+                            result.setIndex(index);
+                        }
+                    }
+                    return result;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new EtcdClientException("Error parsing response from etcd", e);
+            }
+        } finally {
+            close(httpResponse);
         }
-        sb.append(suffix);
+    }
 
-        URI uri = baseUri.resolve(sb.toString());
-        return uri;
+    URI buildKeyUri(String prefix, String key, String suffix) {
+        return EtcdKeyUris.build(prefix, key, suffix);
     }
 
-    private ListenableFuture<HttpResponse> asyncExecuteHttp(HttpUriRequest request) {
+    /**
+     * Sends the request to a member of the cluster. The request URI is relative and is resolved against whichever
+     * member is picked. GETs are idempotent, so they are retried according to the retry policy if the request fails;
+     * local reads are also spread across members and, if enabled, hedged, while quorum reads go to the leader. Anything
+     * else goes to the leader and is only retried if the connection could not be established at all.
+     */
+    private ListenableFuture<HttpResponse> asyncExecuteHttp(CloseableHttpAsyncClient client,
+            final EtcdOperation operation, HttpRequestBase request) {
         final SettableFuture<HttpResponse> future = SettableFuture.create();
 
-        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+        long bytesOut = 0;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            bytesOut = entity == null ? 0 : Math.max(entity.getContentLength(), 0);
+        }
+        metrics.requestStarted(operation, bytesOut);
+        final long start = System.nanoTime();
+        Futures.addCallback(future, new com.google.common.util.concurrent.FutureCallback<HttpResponse>() {
             @Override
-            public void completed(HttpResponse result) {
-                future.set(result);
+            public void onSuccess(HttpResponse result) {
+                metrics.requestCompleted(operation, System.nanoTime() - start);
             }
 
             @Override
-            public void failed(Exception ex) {
+            public void onFailure(Throwable t) {
+                metrics.requestFailed(operation, System.nanoTime() - start, t);
+            }
+        });
+
+        new HttpCall(client, operation, request, future).start();
+
+        return future;
+    }
+
+    /**
+     * Sends the request on the calling thread through the blocking client. Members are picked, failed requests retried
+     * and redirected writes followed as in {@link HttpCall}, only the retries sleep on the calling thread and reads
+     * are not hedged. A request that got no response on a reused connection is sent again to the same member, as the
+     * member most likely closed the connection while it was idle. The response entity is left unread, so its
+     * connection goes back to the pool once it has been.
+     */
+    private HttpResponse syncExecuteHttp(EtcdOperation operation, HttpRequestBase request)
+            throws EtcdClientException {
+        long bytesOut = 0;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            bytesOut = entity == null ? 0 : Math.max(entity.getContentLength(), 0);
+        }
+        metrics.requestStarted(operation, bytesOut);
+        long start = System.nanoTime();
+
+        URI path = request.getURI();
+        boolean idempotent = HttpGet.METHOD_NAME.equals(request.getMethod());
+        boolean quorum = idempotent && isQuorumRead(path);
+        if (!idempotent || quorum) {
+            leaderFinder.findIfUnknown();
+        }
+        EtcdCluster.Member member = idempotent && !quorum ? cluster.selectForRead() : cluster.selectForWrite();
+        int failures = 0;
+        int redirects = 0;
+        while (true) {
+            request.setURI(member.resolve(path));
+            HttpClientContext context = HttpClientContext.create();
+            CloseableHttpResponse response;
+            try {
+                response = blockingClient.execute(request, context);
+            } catch (IOException e) {
+                if (e instanceof NoHttpResponseException
+                        && Boolean.TRUE.equals(context.getAttribute(EtcdClientBuilder.CONNECTION_REUSED))) {
+                    // The member closed the pooled connection while it sat idle and never saw the request. The
+                    // connection is gone now, so this ends on a fresh one once the pool runs out of stale ones.
+                    LOGGER.debug("Connection to etcd member {} was closed while idle, sending the request again",
+                            member);
+                    request.reset();
+                    continue;
+                }
+                cluster.markDown(member);
+                if ((!idempotent || quorum) && member == cluster.getLeader()) {
+                    leaderFinder.refresh();
+                }
+                long delay = idempotent || e instanceof ConnectException
+                        ? retryPolicy.retryDelayMillis(++failures, e) : -1;
+                if (delay < 0) {
+                    metrics.requestFailed(operation, System.nanoTime() - start, e);
+                    throw new EtcdClientException("Error executing request", e);
+                }
+                LOGGER.debug("Request to etcd member {} failed, retrying on another member in {}ms", member, delay, e);
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        metrics.requestFailed(operation, System.nanoTime() - start, ie);
+                        throw new EtcdClientException("Interrupted during request", ie);
+                    }
+                }
+                request.reset();
+                member = idempotent && !quorum ? cluster.selectForRead() : cluster.selectForWrite();
+                continue;
+            }
+            cluster.markUp(member);
+
+            // The http client only follows redirects of GETs by itself, see HttpCall#redirect
+            int status = response.getStatusLine().getStatusCode();
+            if (!idempotent && status >= 300 && status < 400 && ++redirects < cluster.size()) {
+                EtcdCluster.Member leader = leaderFinder.redirected(response);
+                if (leader != null) {
+                    close(response);
+                    request.reset();
+                    member = leader;
+                    continue;
+                }
+            }
+            metrics.requestCompleted(operation, System.nanoTime() - start);
+            return response;
+        }
+    }
+
+    /**
+     * A request along with its retries and its hedge, if any. Whichever attempt answers first completes the future,
+     * and once the future is done, by answer, failure or cancellation, any attempt still in flight is cancelled.
+     */
+    private final class HttpCall {
+
+        private final CloseableHttpAsyncClient client;
+        private final HttpRequestBase request;
+        private final URI path;
+        private final boolean idempotent;
+        private final boolean quorum;
+        private final boolean watch;
+        private final boolean hedged;
+        private final SettableFuture<HttpResponse> future;
+
+        // Guarded by this
+        private int failures;
+        private int inFlight;
+        private int redirects;
+
+        HttpCall(CloseableHttpAsyncClient client, EtcdOperation operation, HttpRequestBase request,
+                SettableFuture<HttpResponse> future) {
+            this.client = client;
+            this.request = request;
+            this.path = request.getURI();
+            this.idempotent = HttpGet.METHOD_NAME.equals(request.getMethod());
+            this.quorum = idempotent && isQuorumRead(path);
+            this.watch = operation == EtcdOperation.WATCH;
+            // Watches are GETs too, but hedging a long poll would just double the number of watches. Quorum reads are
+            // served by the leader whichever member gets them, so a hedge would only queue up behind the first try.
+            this.hedged = hedger != null && operation == EtcdOperation.GET && !quorum && cluster.size() > 1;
+            this.future = future;
+        }
+
+        void start() {
+            if (!idempotent || quorum) {
+                leaderFinder.findIfUnknown();
+            }
+            EtcdCluster.Member member = select();
+            send(request, member, hedged);
+            if (hedged) {
+                long delay = hedger.delayNanos();
+                if (delay >= 0) {
+                    scheduleHedge(member, delay);
+                }
+            }
+        }
+
+        private void send(final HttpRequestBase attempt, final EtcdCluster.Member member, final boolean timed) {
+            attempt.setURI(member.resolve(path));
+            synchronized (this) {
+                inFlight++;
+            }
+            final long sent = System.nanoTime();
+            final Future<HttpResponse> pending = client.execute(attempt, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse result) {
+                    cluster.markUp(member);
+                    if (timed) {
+                        hedger.record(System.nanoTime() - sent);
+                    }
+                    if (!idempotent && redirect(attempt, result)) {
+                        return;
+                    }
+                    finished();
+                    future.set(result);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    cluster.markDown(member);
+                    retry(attempt, member, ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    member.release();
+                    if (timed) {
+                        // Cancelled because another attempt won, so this is a lower bound of how long it would take
+                        hedger.record(System.nanoTime() - sent);
+                    }
+                    if (finished() == 0) {
+                        future.setException(new InterruptedException());
+                    }
+                }
+            });
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    pending.cancel(true);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        /**
+         * Follows a follower's redirect of a write to the leader, which etcd 0.4 members answer writes with. The http
+         * client only follows redirects of GETs by itself.
+         */
+        private boolean redirect(HttpRequestBase attempt, HttpResponse response) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 300 || status >= 400) {
+                return false;
+            }
+            EtcdCluster.Member leader = leaderFinder.redirected(response);
+            synchronized (this) {
+                if (leader == null || ++redirects >= cluster.size() || future.isDone()) {
+                    return false;
+                }
+                inFlight--;
+            }
+            close(response);
+            attempt.reset();
+            send(attempt, leader, false);
+            return true;
+        }
+
+        private synchronized int finished() {
+            return --inFlight;
+        }
+
+        private void retry(HttpRequestBase attempt, EtcdCluster.Member member, final Exception ex) {
+            if ((!idempotent || quorum) && member == cluster.getLeader()) {
+                leaderFinder.refresh();
+            }
+            int failed;
+            synchronized (this) {
+                failed = ++failures;
+                if (--inFlight > 0) {
+                    // The other attempt may still answer
+                    return;
+                }
+            }
+            long delay;
+            if (watch) {
+                // Watchers back off and report errors themselves, so a watch just fails over to each other member once
+                delay = failed < cluster.size() ? 0 : -1;
+            } else if (idempotent || ex instanceof ConnectException) {
+                delay = retryPolicy.retryDelayMillis(failed, ex);
+            } else {
+                delay = -1;
+            }
+            if (delay < 0 || future.isDone()) {
                 future.setException(ex);
+                return;
             }
 
-            @Override
-            public void cancelled() {
-                future.setException(new InterruptedException());
+            LOGGER.debug("Request to etcd member {} failed, retrying on another member in {}ms", member, delay, ex);
+            final HttpRequestBase next = attempt;
+            next.reset();
+            if (delay == 0) {
+                send(next, select(), false);
+                return;
             }
-        });
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!future.isDone()) {
+                            send(next, select(), false);
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                future.setException(ex);
+            }
+        }
 
-        return future;
+        /**
+         * Local reads are spread across the members; writes and quorum reads go to the leader, which a follower
+         * would only forward them to
+         */
+        private EtcdCluster.Member select() {
+            return idempotent && !quorum ? cluster.selectForRead() : cluster.selectForWrite();
+        }
+
+        private void scheduleHedge(final EtcdCluster.Member primary, long delayNanos) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (HttpCall.this) {
+                            // Not worth hedging if the request is done or between retries
+                            if (future.isDone() || inFlight == 0 || failures > 0) {
+                                return;
+                            }
+                        }
+                        EtcdCluster.Member member = cluster.selectForRead(primary);
+                        if (member != null) {
+                            LOGGER.debug("Hedging slow request to etcd member {} on {}", primary, member);
+                            HttpGet hedge = new HttpGet();
+                            hedge.setConfig(request.getConfig());
+                            hedge.setHeaders(request.getAllHeaders());
+                            send(hedge, member, true);
+                        }
+                    }
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Not hedging a request to etcd, the client is closed", e);
+            }
+        }
+    }
+
+    /**
+     * Turns a key not found error into a null result
+     */
+    private static EtcdResult keyNotFoundAsNull(EtcdResult result) {
+        if (result != null && result.isError() && result.getErrorCode() == EtcdStatusCode.EcodeKeyNotFound.value()) {
+            return null;
+        }
+        return result;
+    }
+
+    private static boolean isQuorumRead(URI uri) {
+        String query = uri.getRawQuery();
+        return query != null && (query.startsWith("quorum=true") || query.contains("&quorum=true"));
     }
 
     private static void close(HttpResponse response) {
@@ -487,12 +2247,139 @@ public class EtcdClient implements Closeable {
         }
     }
 
-    private static String urlEscape(String s) {
-        try {
-            return URLEncoder.encode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException();
+    /**
+     * A read-modify-write of a key, see {@link #update(String, Function)}. Each attempt reads the key, applies the
+     * function and writes with prevIndex, or with prevExist=false if there was no key. etcd does not send the current
+     * value back when a compare fails, so a lost race costs a fresh read before the next attempt.
+     */
+    private final class Update {
+
+        private final String key;
+        private final Function<String, String> function;
+        private final SettableFuture<EtcdResult> future = SettableFuture.create();
+        /**
+         * Where a retry reads again, so that the retries of a sync update are parsed on its thread as well
+         */
+        private final Executor executor = parseExecutor();
+        private int attempts;
+
+        Update(String key, Function<String, String> function) {
+            this.key = key;
+            this.function = function;
+        }
+
+        ListenableFuture<EtcdResult> start() {
+            read();
+            return future;
+        }
+
+        private void read() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                Futures.addCallback(getAsync(key), new com.google.common.util.concurrent.FutureCallback<EtcdResult>() {
+                    @Override
+                    public void onSuccess(EtcdResult current) {
+                        write(current);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        fail(t);
+                    }
+                });
+            } catch (EtcdClientException e) {
+                fail(e);
+            }
+        }
+
+        private void write(final EtcdResult current) {
+            String newValue;
+            try {
+                newValue = function.apply(current == null ? null : current.getNode().getValue());
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (newValue == null) {
+                metrics.updateCompleted(attempts, true);
+                future.set(current);
+                return;
+            }
+
+            attempts++;
+            ListenableFuture<EtcdResult> result;
+            try {
+                if (current == null) {
+                    result = createAsync(key, newValue, null);
+                } else {
+                    // A key deleted since the read is a lost race as much as one modified since
+                    EtcdForm data = new EtcdForm().add("value", newValue)
+                            .add("prevIndex", Long.toString(current.getNode().getModifiedIndex()));
+                    result = set0(EtcdOperation.CAS, key, data, new int[]{HttpStatus.SC_OK,
+                        HttpStatus.SC_PRECONDITION_FAILED, HttpStatus.SC_NOT_FOUND},
+                            EtcdStatusCode.EcodeTestFailed.value(), EtcdStatusCode.EcodeKeyNotFound.value());
+                }
+            } catch (EtcdClientException e) {
+                fail(e);
+                return;
+            }
+            Futures.addCallback(result, new com.google.common.util.concurrent.FutureCallback<EtcdResult>() {
+                @Override
+                public void onSuccess(EtcdResult written) {
+                    if (written.isError()) {
+                        conflict(written);
+                    } else {
+                        metrics.updateCompleted(attempts, true);
+                        future.set(written);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    fail(t);
+                }
+            });
+        }
+
+        private void conflict(EtcdResult result) {
+            long delay = UPDATE_BACKOFF.retryDelayMillis(attempts, null);
+            if (delay < 0) {
+                metrics.updateCompleted(attempts, false);
+                future.setException(new EtcdClientException("Gave up updating " + key + " after " + attempts
+                        + " attempts lost to concurrent writers", result));
+                return;
+            }
+            LOGGER.debug("Update of {} lost a race ({}), retrying in {}ms", key, result.getCause(), delay);
+            if (delay == 0) {
+                read();
+                return;
+            }
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    read();
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            fail(new EtcdClientException("The client is closed", e));
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                fail(new EtcdClientException("The client is closed", e));
+            }
         }
-    }
 
+        private void fail(Throwable t) {
+            metrics.updateCompleted(attempts, false);
+            future.setException(t);
+        }
+    }
 }
@@ -0,0 +1,522 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Builds an {@link EtcdClient}, exposing the connection pool and I/O reactor settings of the underlying http client.
+ *
+ * Watches are long polls which hold on to a connection until something changes, so with a shared pool a handful of
+ * watches can use up the per-route limit and starve normal reads and writes. {@link #separateWatchPool(boolean)} gives
+ * watches their own pool (and their own I/O reactor) with its own limits.
+ *
+ * @author bryan
+ */
+public class EtcdClientBuilder {
+
+    /**
+     * The per-route connection limit, same as the http client's default
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 2;
+
+    /**
+     * The total connection limit, same as the http client's default
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 20;
+
+    /**
+     * How long the blocking client keeps an idle connection for reuse, see {@link #blockingTransport(boolean)}
+     */
+    public static final long BLOCKING_MAX_IDLE_MILLIS = 1000;
+
+    /**
+     * Set on the context of a blocking request to whether the connection it went out on had been used before
+     */
+    static final String CONNECTION_REUSED = "etcd.connection-reused";
+
+    private final ImmutableList.Builder<URI> members = ImmutableList.builder();
+
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+    private int connectTimeoutMillis = -1;
+    private int socketTimeoutMillis = -1;
+    private int connectionRequestTimeoutMillis = -1;
+    private ConnectionKeepAliveStrategy keepAliveStrategy;
+
+    private boolean separateWatchPool;
+    private int watchMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int watchMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    private int watchIoThreadCount = 1;
+
+    // 0 to follow the per-route connection limit
+    private int maxBulkInFlight;
+    private boolean coalesceReads;
+    private boolean blockingTransport;
+    private boolean compressResponses;
+    private EtcdClientMetrics metrics = EtcdClientMetrics.NONE;
+    private EtcdRetryPolicy retryPolicy = EtcdBackoffRetryPolicy.DEFAULT;
+    private Executor decodeExecutor;
+    private int decodeThreadCount = Runtime.getRuntime().availableProcessors();
+    private double hedgePercentile = -1;
+    private long hedgeMinDelayNanos;
+
+    /**
+     * Adds a member of the etcd cluster
+     *
+     * @param member the client URL of the member
+     * @return
+     */
+    public EtcdClientBuilder member(URI member) {
+        members.add(member);
+        return this;
+    }
+
+    /**
+     * Adds members of the etcd cluster
+     *
+     * @param members the client URLs of the members
+     * @return
+     */
+    public EtcdClientBuilder members(List<URI> members) {
+        this.members.addAll(members);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of connections to a single etcd member, which is also how many requests a bulk operation
+     * keeps in flight unless {@link #maxBulkInFlight(int)} says otherwise
+     *
+     * @param maxConnectionsPerRoute
+     * @return
+     */
+    public EtcdClientBuilder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        Preconditions.checkArgument(maxConnectionsPerRoute > 0, "maxConnectionsPerRoute must be positive");
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of connections across all etcd members
+     *
+     * @param maxConnectionsTotal
+     * @return
+     */
+    public EtcdClientBuilder maxConnectionsTotal(int maxConnectionsTotal) {
+        Preconditions.checkArgument(maxConnectionsTotal > 0, "maxConnectionsTotal must be positive");
+        this.maxConnectionsTotal = maxConnectionsTotal;
+        return this;
+    }
+
+    /**
+     * Sets the number of I/O dispatcher threads. Defaults to the number of processors.
+     *
+     * @param ioThreadCount
+     * @return
+     */
+    public EtcdClientBuilder ioThreadCount(int ioThreadCount) {
+        Preconditions.checkArgument(ioThreadCount > 0, "ioThreadCount must be positive");
+        this.ioThreadCount = ioThreadCount;
+        return this;
+    }
+
+    /**
+     * Sets the timeout for establishing a connection. Not set by default.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public EtcdClientBuilder connectTimeout(long timeout, TimeUnit unit) {
+        this.connectTimeoutMillis = toMillis(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Sets the maximum period of inactivity on a connection while waiting for a response. Not set by default. This does
+     * not apply to watches, since a watch can legitimately wait for a long time.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public EtcdClientBuilder socketTimeout(long timeout, TimeUnit unit) {
+        this.socketTimeoutMillis = toMillis(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Sets the timeout for leasing a connection from the pool. Not set by default.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public EtcdClientBuilder connectionRequestTimeout(long timeout, TimeUnit unit) {
+        this.connectionRequestTimeoutMillis = toMillis(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Sets how long idle connections are kept alive. Defaults to the http client's strategy, which honours the
+     * Keep-Alive header. The blocking transport keeps them for {@link #BLOCKING_MAX_IDLE_MILLIS} at most.
+     *
+     * @param keepAliveStrategy
+     * @return
+     */
+    public EtcdClientBuilder keepAliveStrategy(ConnectionKeepAliveStrategy keepAliveStrategy) {
+        this.keepAliveStrategy = keepAliveStrategy;
+        return this;
+    }
+
+    /**
+     * Sends watches through their own connection pool, so long polls cannot starve normal key traffic
+     *
+     * @param separateWatchPool
+     * @return
+     */
+    public EtcdClientBuilder separateWatchPool(boolean separateWatchPool) {
+        this.separateWatchPool = separateWatchPool;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of watch connections to a single etcd member. Only used with a separate watch pool.
+     *
+     * @param watchMaxConnectionsPerRoute
+     * @return
+     */
+    public EtcdClientBuilder watchMaxConnectionsPerRoute(int watchMaxConnectionsPerRoute) {
+        Preconditions.checkArgument(watchMaxConnectionsPerRoute > 0, "watchMaxConnectionsPerRoute must be positive");
+        this.watchMaxConnectionsPerRoute = watchMaxConnectionsPerRoute;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of watch connections across all etcd members. Only used with a separate watch pool.
+     *
+     * @param watchMaxConnectionsTotal
+     * @return
+     */
+    public EtcdClientBuilder watchMaxConnectionsTotal(int watchMaxConnectionsTotal) {
+        Preconditions.checkArgument(watchMaxConnectionsTotal > 0, "watchMaxConnectionsTotal must be positive");
+        this.watchMaxConnectionsTotal = watchMaxConnectionsTotal;
+        return this;
+    }
+
+    /**
+     * Sets the number of I/O dispatcher threads for watches. Only used with a separate watch pool. Defaults to 1.
+     *
+     * @param watchIoThreadCount
+     * @return
+     */
+    public EtcdClientBuilder watchIoThreadCount(int watchIoThreadCount) {
+        Preconditions.checkArgument(watchIoThreadCount > 0, "watchIoThreadCount must be positive");
+        this.watchIoThreadCount = watchIoThreadCount;
+        return this;
+    }
+
+    /**
+     * Sets how many requests a bulk operation such as {@link EtcdClient#setAll(java.util.Map)} keeps in flight.
+     * Defaults to {@link #maxConnectionsPerRoute(int)}, as writes all go to the leader. Requests beyond the connections
+     * available just wait for one, and fail if that takes longer than {@link #connectionRequestTimeout(long,
+     * TimeUnit)}, so raise the connection limits along with it.
+     *
+     * @param maxBulkInFlight
+     * @return
+     */
+    public EtcdClientBuilder maxBulkInFlight(int maxBulkInFlight) {
+        Preconditions.checkArgument(maxBulkInFlight > 0, "maxBulkInFlight must be positive");
+        this.maxBulkInFlight = maxBulkInFlight;
+        return this;
+    }
+
+    /**
+     * Lets concurrent identical reads share one request and one parsed result, so a thundering herd on a popular key
+     * costs etcd a single read. Off by default, since every caller then gets the same mutable {@link EtcdResult} and
+     * must treat it as read-only. Reads made after a write through the same client has completed never join a read of
+     * that key, or of a directory above or below it, that was sent before.
+     *
+     * @param coalesceReads
+     * @return
+     */
+    public EtcdClientBuilder coalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+        return this;
+    }
+
+    /**
+     * Sends the requests of the plain sync key calls, {@link EtcdClient#get(String)}, {@link EtcdClient#set(String,
+     * String)}, {@link EtcdClient#delete(String)} and the conditional writes, over a pooled blocking http client on the
+     * calling thread, instead of through the async client and a future. This saves the thread handoffs and callback
+     * stages of the async path, which is worth it for callers making many small sync calls. The blocking client has
+     * a pool of its own with the same limits and timeouts; members are picked, failed requests retried and redirects
+     * followed as for async requests, but blocking reads are neither hedged nor coalesced. A request that got no
+     * response on a reused connection, which the server may have closed while it sat idle, is sent again on another,
+     * and connections idle for longer than {@link #BLOCKING_MAX_IDLE_MILLIS} are not reused. Off by default.
+     *
+     * @param blockingTransport
+     * @return
+     */
+    public EtcdClientBuilder blockingTransport(boolean blockingTransport) {
+        this.blockingTransport = blockingTransport;
+        return this;
+    }
+
+    /**
+     * Asks for gzipped responses, which are inflated as they stream into the parser. Large recursive reads and
+     * listings are mostly repetitive JSON and shrink many times over, so this cuts their transfer time wherever
+     * bandwidth is scarce, at the cost of some CPU on both ends. Needs a server, or a proxy in front of etcd, that
+     * compresses; responses that come back uncompressed are read as before. Off by default.
+     *
+     * @param compressResponses
+     * @return
+     */
+    public EtcdClientBuilder compressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+        return this;
+    }
+
+    /**
+     * Sets the instrumentation the client reports every request to, e.g. an {@link EtcdClientStats}
+     *
+     * @param metrics
+     * @return
+     */
+    public EtcdClientBuilder metrics(EtcdClientMetrics metrics) {
+        this.metrics = Preconditions.checkNotNull(metrics);
+        return this;
+    }
+
+    /**
+     * Sets how failed requests are retried. Defaults to {@link EtcdBackoffRetryPolicy#DEFAULT}.
+     *
+     * @param retryPolicy
+     * @return
+     */
+    public EtcdClientBuilder retryPolicy(EtcdRetryPolicy retryPolicy) {
+        this.retryPolicy = Preconditions.checkNotNull(retryPolicy);
+        return this;
+    }
+
+    /**
+     * Hedges gets: a get that has not been answered within the given percentile of recent get latency is sent again
+     * to another member, and whichever answer comes first is used. This cuts the tail latency a single slow member
+     * causes at the cost of a few percent extra reads. Only plain gets are hedged, never writes or watches, and only
+     * when the cluster has more than one member. Off by default.
+     *
+     * @param percentile the percentile of get latency to wait for, e.g. 95
+     * @param minDelay the shortest a get waits before being hedged
+     * @param unit
+     * @return
+     */
+    public EtcdClientBuilder hedgeReads(double percentile, long minDelay, TimeUnit unit) {
+        Preconditions.checkArgument(percentile > 0 && percentile < 100, "percentile must be between 0 and 100");
+        Preconditions.checkArgument(minDelay >= 0, "minDelay must not be negative");
+        this.hedgePercentile = percentile;
+        this.hedgeMinDelayNanos = unit.toNanos(minDelay);
+        return this;
+    }
+
+    /**
+     * Sets the executor responses are parsed on, which then also runs the callbacks chained to the futures the client
+     * returns. Sync calls parse on the calling thread instead, so callbacks may make them without waiting for a thread
+     * of this executor. By default the client has a pool of its own, so the I/O threads only move bytes and parsing
+     * a large response does not hold up every other request served by the same I/O thread. A supplied executor is not
+     * shut down when the client is closed; {@link com.google.common.util.concurrent.MoreExecutors#sameThreadExecutor()}
+     * parses on the I/O threads, as the client used to.
+     *
+     * @param decodeExecutor
+     * @return
+     */
+    public EtcdClientBuilder decodeExecutor(Executor decodeExecutor) {
+        this.decodeExecutor = Preconditions.checkNotNull(decodeExecutor);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads of the client's own decode pool, used unless an executor is given with
+     * {@link #decodeExecutor(Executor)}. Defaults to the number of processors.
+     *
+     * @param decodeThreadCount
+     * @return
+     */
+    public EtcdClientBuilder decodeThreadCount(int decodeThreadCount) {
+        Preconditions.checkArgument(decodeThreadCount > 0, "decodeThreadCount must be positive");
+        this.decodeThreadCount = decodeThreadCount;
+        return this;
+    }
+
+    /**
+     * Builds and starts the client
+     *
+     * @return
+     */
+    public EtcdClient build() {
+        return new EtcdClient(this);
+    }
+
+    List<URI> getMembers() {
+        return members.build();
+    }
+
+    int getMaxBulkInFlight() {
+        return maxBulkInFlight > 0 ? maxBulkInFlight : maxConnectionsPerRoute;
+    }
+
+    EtcdClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    EtcdRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return the executor given to the builder, null if the client is to use a pool of its own
+     */
+    Executor getDecodeExecutor() {
+        return decodeExecutor;
+    }
+
+    ExecutorService buildDecodePool() {
+        return Executors.newFixedThreadPool(decodeThreadCount, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("etcd-client-decoder-%d").build());
+    }
+
+    /**
+     * @return the hedger for gets, null if gets are not hedged
+     */
+    EtcdHedger buildHedger() {
+        if (hedgePercentile < 0) {
+            return null;
+        }
+        return new EtcdHedger(hedgePercentile, hedgeMinDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    boolean isSeparateWatchPool() {
+        return separateWatchPool;
+    }
+
+    /**
+     * @return the blocking client for sync calls, null if they go through the async client
+     */
+    CloseableHttpClient buildBlockingHttpClient() {
+        if (!blockingTransport) {
+            return null;
+        }
+        // Retries are up to the retry policy, and compressed content is left to the etcd client to inflate, same as
+        // with the async client. The stale connection check costs a 1ms read timeout on every request, so it is off:
+        // idle connections expire instead, and a request the server never answered on a reused one is sent again.
+        final ConnectionKeepAliveStrategy keepAlive = keepAliveStrategy != null ? keepAliveStrategy
+                : DefaultConnectionKeepAliveStrategy.INSTANCE;
+        HttpClientBuilder builder = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.copy(buildRequestConfig())
+                        .setStaleConnectionCheckEnabled(false).build())
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setMaxConnTotal(maxConnectionsTotal)
+                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        long duration = keepAlive.getKeepAliveDuration(response, context);
+                        return duration > 0 ? Math.min(duration, BLOCKING_MAX_IDLE_MILLIS) : BLOCKING_MAX_IDLE_MILLIS;
+                    }
+                })
+                .setRequestExecutor(new HttpRequestExecutor() {
+                    @Override
+                    public HttpResponse execute(HttpRequest request, HttpClientConnection connection,
+                            HttpContext context) throws IOException, HttpException {
+                        context.setAttribute(CONNECTION_REUSED, connection.getMetrics().getRequestCount() > 0);
+                        return super.execute(request, connection, context);
+                    }
+                })
+                .disableAutomaticRetries()
+                .disableContentCompression();
+        if (compressResponses) {
+            builder.addInterceptorLast(EtcdContentEncoding.ACCEPT_GZIP);
+        }
+        return builder.build();
+    }
+
+    CloseableHttpAsyncClient buildHttpClient() {
+        return buildHttpClient(maxConnectionsPerRoute, maxConnectionsTotal, ioThreadCount, buildRequestConfig());
+    }
+
+    RequestConfig buildRequestConfig() {
+        return buildRequestConfig(socketTimeoutMillis);
+    }
+
+    CloseableHttpAsyncClient buildWatchHttpClient() {
+        return buildHttpClient(watchMaxConnectionsPerRoute, watchMaxConnectionsTotal, watchIoThreadCount,
+                buildWatchRequestConfig());
+    }
+
+    /**
+     * Watches never time out while waiting for a change
+     */
+    RequestConfig buildWatchRequestConfig() {
+        return buildRequestConfig(0);
+    }
+
+    private RequestConfig buildRequestConfig(int socketTimeout) {
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                .build();
+    }
+
+    private CloseableHttpAsyncClient buildHttpClient(int maxPerRoute, int maxTotal, int ioThreads,
+            RequestConfig requestConfig) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(Math.max(connectTimeoutMillis, 0))
+                .build();
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setMaxConnTotal(maxTotal);
+        if (keepAliveStrategy != null) {
+            builder.setKeepAliveStrategy(keepAliveStrategy);
+        }
+        if (compressResponses) {
+            builder.addInterceptorLast(EtcdContentEncoding.ACCEPT_GZIP);
+        }
+        return builder.build();
+    }
+
+    private static int toMillis(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+        return (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
+    }
+}
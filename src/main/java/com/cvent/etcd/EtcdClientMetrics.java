@@ -0,0 +1,90 @@
+package com.cvent.etcd;
+
+/**
+ * Instrumentation hooks called by {@link EtcdClient} for every request it makes. Calls are made on the caller's thread,
+ * the http client's I/O threads and the client's decode threads, so implementations must be thread safe and cheap.
+ * {@link EtcdClientStats} is a ready made implementation.
+ *
+ * @author bryan
+ */
+public interface EtcdClientMetrics {
+
+    /**
+     * Metrics which do nothing, the default
+     */
+    EtcdClientMetrics NONE = new EtcdClientMetrics() {
+        @Override
+        public void requestStarted(EtcdOperation operation, long bytesOut) {
+        }
+
+        @Override
+        public void requestCompleted(EtcdOperation operation, long latencyNanos) {
+        }
+
+        @Override
+        public void requestFailed(EtcdOperation operation, long latencyNanos, Throwable cause) {
+        }
+
+        @Override
+        public void responseParsed(EtcdOperation operation, long bytesIn, long parseNanos) {
+        }
+
+        @Override
+        public void etcdError(EtcdOperation operation, int errorCode) {
+        }
+
+        @Override
+        public void updateCompleted(int attempts, boolean succeeded) {
+        }
+    };
+
+    /**
+     * Called when a request is sent
+     *
+     * @param operation
+     * @param bytesOut the size of the request body, 0 if there is none
+     */
+    void requestStarted(EtcdOperation operation, long bytesOut);
+
+    /**
+     * Called when the response to a request arrives, including any retries on other members
+     *
+     * @param operation
+     * @param latencyNanos the time from sending the request to receiving the response
+     */
+    void requestCompleted(EtcdOperation operation, long latencyNanos);
+
+    /**
+     * Called when a request fails without a response
+     *
+     * @param operation
+     * @param latencyNanos the time from sending the request to the failure
+     * @param cause
+     */
+    void requestFailed(EtcdOperation operation, long latencyNanos, Throwable cause);
+
+    /**
+     * Called when a response body has been parsed
+     *
+     * @param operation
+     * @param bytesIn the size of the response body as received, i.e. compressed if it was
+     * @param parseNanos the time spent reading and parsing it
+     */
+    void responseParsed(EtcdOperation operation, long bytesIn, long parseNanos);
+
+    /**
+     * Called for every error code etcd returns, whether or not the caller expected it
+     *
+     * @param operation
+     * @param errorCode see {@link EtcdStatusCode}
+     */
+    void etcdError(EtcdOperation operation, int errorCode);
+
+    /**
+     * Called when an {@link EtcdClient#update(String, com.google.common.base.Function)} finishes, to measure contention
+     *
+     * @param attempts the number of writes it sent, each one beyond the first lost a race with another writer
+     * @param succeeded false if it failed or gave up
+     */
+    void updateCompleted(int attempts, boolean succeeded);
+}
@@ -0,0 +1,220 @@
+package com.cvent.etcd;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The built-in {@link EtcdClientMetrics}, keeping latency histograms and counters per {@link EtcdOperation} in memory.
+ * Pass it to {@link EtcdClientBuilder#metrics(EtcdClientMetrics)} and read it back whenever convenient.
+ *
+ * @author bryan
+ */
+public class EtcdClientStats implements EtcdClientMetrics {
+
+    private final Map<EtcdOperation, OperationStats> operations;
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong updateConflicts = new AtomicLong();
+    private final AtomicLong updatesFailed = new AtomicLong();
+
+    public EtcdClientStats() {
+        Map<EtcdOperation, OperationStats> map = new EnumMap<>(EtcdOperation.class);
+        for (EtcdOperation operation : EtcdOperation.values()) {
+            map.put(operation, new OperationStats());
+        }
+        this.operations = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @param operation
+     * @return the stats of the given kind of request
+     */
+    public OperationStats get(EtcdOperation operation) {
+        return operations.get(operation);
+    }
+
+    @Override
+    public void requestStarted(EtcdOperation operation, long bytesOut) {
+        OperationStats stats = operations.get(operation);
+        stats.inFlight.incrementAndGet();
+        stats.requests.incrementAndGet();
+        stats.bytesOut.addAndGet(bytesOut);
+    }
+
+    @Override
+    public void requestCompleted(EtcdOperation operation, long latencyNanos) {
+        OperationStats stats = operations.get(operation);
+        stats.inFlight.decrementAndGet();
+        stats.latency.record(latencyNanos);
+    }
+
+    @Override
+    public void requestFailed(EtcdOperation operation, long latencyNanos, Throwable cause) {
+        OperationStats stats = operations.get(operation);
+        stats.inFlight.decrementAndGet();
+        stats.failures.incrementAndGet();
+        stats.latency.record(latencyNanos);
+    }
+
+    @Override
+    public void responseParsed(EtcdOperation operation, long bytesIn, long parseNanos) {
+        OperationStats stats = operations.get(operation);
+        stats.bytesIn.addAndGet(bytesIn);
+        stats.parseTime.record(parseNanos);
+    }
+
+    @Override
+    public void etcdError(EtcdOperation operation, int errorCode) {
+        ConcurrentMap<Integer, AtomicLong> errors = operations.get(operation).errors;
+        AtomicLong counter = errors.get(errorCode);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(errorCode, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public void updateCompleted(int attempts, boolean succeeded) {
+        updates.incrementAndGet();
+        if (attempts > 1) {
+            updateConflicts.addAndGet(attempts - 1);
+        }
+        if (!succeeded) {
+            updatesFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of read-modify-write updates made
+     */
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * @return how many update attempts lost a race with another writer and had to be retried
+     */
+    public long getUpdateConflicts() {
+        return updateConflicts.get();
+    }
+
+    /**
+     * @return the number of updates that failed or gave up
+     */
+    public long getUpdatesFailed() {
+        return updatesFailed.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<EtcdOperation, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (stats.getRequests() == 0) {
+                continue;
+            }
+            sb.append(entry.getKey()).append(": ").append(stats).append('\n');
+        }
+        if (getUpdates() > 0) {
+            sb.append("UPDATE: updates=").append(getUpdates()).append(" conflicts=").append(getUpdateConflicts())
+                    .append(" failed=").append(getUpdatesFailed()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The stats of one kind of request
+     */
+    public static class OperationStats {
+
+        private final EtcdLatencyHistogram latency = new EtcdLatencyHistogram();
+        private final EtcdLatencyHistogram parseTime = new EtcdLatencyHistogram();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final ConcurrentMap<Integer, AtomicLong> errors = new ConcurrentHashMap<>();
+
+        /**
+         * @return the round trip latencies, in nanoseconds
+         */
+        public EtcdLatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time spent reading and parsing response bodies, in nanoseconds
+         */
+        public EtcdLatencyHistogram getParseTime() {
+            return parseTime;
+        }
+
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the number of requests that failed without a response
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        /**
+         * @param statusCode
+         * @return how many times etcd returned the given error code
+         */
+        public long getErrorCount(EtcdStatusCode statusCode) {
+            AtomicLong counter = errors.get(statusCode.value());
+            return counter == null ? 0 : counter.get();
+        }
+
+        /**
+         * @return the error counts by etcd error code
+         */
+        public Map<Integer, Long> getErrorCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            for (Map.Entry<Integer, AtomicLong> entry : errors.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + " inFlight=" + getInFlight() + " failures=" + getFailures()
+                    + " p50=" + micros(latency.getValueAtPercentile(50)) + "us"
+                    + " p99=" + micros(latency.getValueAtPercentile(99)) + "us"
+                    + " max=" + micros(latency.getMax()) + "us"
+                    + " parseP99=" + micros(parseTime.getValueAtPercentile(99)) + "us"
+                    + " bytesIn=" + getBytesIn() + " bytesOut=" + getBytesOut()
+                    + " errors=" + getErrorCounts();
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
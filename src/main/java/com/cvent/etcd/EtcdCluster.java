@@ -0,0 +1,230 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of etcd members a client talks to. Reads are spread round robin across the healthy members, writes go to the
+ * leader once it is known, or else stick to the first healthy member. A member that fails is marked down and skipped
+ * until its backoff expires, after which a single request is let through to probe it; the backoff doubles every time a
+ * probe fails.
+ *
+ * @author bryan
+ */
+final class EtcdCluster {
+
+    static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<Member> members;
+    private final Ticker ticker;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Member leader;
+
+    EtcdCluster(List<URI> uris) {
+        this(uris, Ticker.systemTicker());
+    }
+
+    EtcdCluster(List<URI> uris, Ticker ticker) {
+        Preconditions.checkArgument(!uris.isEmpty(), "At least one etcd member is required");
+        ImmutableList.Builder<Member> builder = ImmutableList.builder();
+        for (URI uri : uris) {
+            builder.add(new Member(uri));
+        }
+        this.members = builder.build();
+        this.ticker = ticker;
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * Picks the member for an idempotent request, rotating through the healthy members. The leader is left to writes
+     * when there are at least two other members to share the reads.
+     */
+    Member selectForRead() {
+        return select(next.getAndIncrement() & Integer.MAX_VALUE, members.size() > 2 ? leader : null);
+    }
+
+    /**
+     * Picks a member other than the given one for an idempotent request
+     *
+     * @return the member, null if there is no other member to pick
+     */
+    Member selectForRead(Member avoid) {
+        Member member = select(next.getAndIncrement() & Integer.MAX_VALUE, avoid);
+        return member == avoid ? null : member;
+    }
+
+    /**
+     * Picks the member for a write, which is the leader if it is known and healthy, otherwise the first healthy member
+     */
+    Member selectForWrite() {
+        Member current = leader;
+        if (current != null && current.tryAcquire(ticker.read())) {
+            return current;
+        }
+        return select(0, null);
+    }
+
+    /**
+     * @return the member believed to be the leader, null if it is not known
+     */
+    Member getLeader() {
+        return leader;
+    }
+
+    /**
+     * Records which member is the leader, null if it is not known
+     */
+    void setLeader(Member leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Finds the member with the given client URL, ignoring the path
+     *
+     * @return the member, null if the URL is not one of the members
+     */
+    Member find(URI uri) {
+        for (Member member : members) {
+            URI candidate = member.getUri();
+            if (candidate.getScheme().equalsIgnoreCase(uri.getScheme())
+                    && candidate.getHost().equalsIgnoreCase(uri.getHost())
+                    && port(candidate) == port(uri)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() >= 0) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Picks the first member from start on that can take a request, leaving out the skipped member unless nothing
+     * else can
+     */
+    private Member select(int start, Member skip) {
+        long now = ticker.read();
+        int size = members.size();
+        for (int i = 0; i < size; i++) {
+            Member member = members.get((start + i) % size);
+            if (member != skip && member.tryAcquire(now)) {
+                return member;
+            }
+        }
+        if (skip != null && skip.tryAcquire(now)) {
+            return skip;
+        }
+
+        // Everything is down, so go with whichever member is due back first rather than failing outright
+        Member best = members.get(start % size);
+        for (Member member : members) {
+            if (member.downUntil() - best.downUntil() < 0) {
+                best = member;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Marks the given member as healthy again
+     */
+    void markUp(Member member) {
+        member.markUp();
+    }
+
+    /**
+     * Marks the given member as down, doubling its backoff
+     */
+    void markDown(Member member) {
+        member.markDown(ticker.read());
+    }
+
+    /**
+     * A single etcd member along with its health
+     */
+    static final class Member {
+
+        private final URI uri;
+
+        // Guarded by this
+        private int failures;
+        private long downUntil;
+        private boolean probing;
+
+        Member(URI uri) {
+            String s = uri.toString();
+            if (!s.endsWith("/")) {
+                uri = URI.create(s + "/");
+            }
+            this.uri = uri;
+        }
+
+        URI getUri() {
+            return uri;
+        }
+
+        URI resolve(URI path) {
+            return uri.resolve(path);
+        }
+
+        synchronized boolean isHealthy() {
+            return failures == 0;
+        }
+
+        private synchronized long downUntil() {
+            return downUntil;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            if (failures == 0) {
+                return true;
+            }
+            if (!probing && now - downUntil >= 0) {
+                probing = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gives up a probe slot without recording a success or a failure, e.g. if the request was cancelled
+         */
+        synchronized void release() {
+            probing = false;
+        }
+
+        private synchronized void markUp() {
+            failures = 0;
+            probing = false;
+        }
+
+        private synchronized void markDown(long now) {
+            failures++;
+            probing = false;
+            long backoff = MIN_BACKOFF_NANOS << Math.min(failures - 1, 16);
+            downUntil = now + Math.min(backoff, MAX_BACKOFF_NANOS);
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.cvent.etcd;
+
+/**
+ * How up to date a read must be, see {@link EtcdReadOptions}
+ *
+ * @author bryan
+ */
+public enum EtcdConsistency {
+
+    /**
+     * Served from the local state of whichever member gets the read, preferably a follower. Cheap, and spreads the
+     * load, but a follower that is behind may return data older than a write that has already completed.
+     */
+    LOCAL,
+    /**
+     * Goes through the raft log (quorum=true), so the result reflects every write completed before the read was sent.
+     * The read is sent to the leader, which has to handle it anyway, and is never shared with other reads in flight.
+     */
+    QUORUM
+}
@@ -0,0 +1,68 @@
+package com.cvent.etcd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Negotiates gzip compression of response bodies. The clients of an {@link EtcdClient} built with
+ * {@link EtcdClientBuilder#compressResponses(boolean)} ask for gzip on every request, and every response is read
+ * through here, so a compressed body is inflated as it streams into the parser without ever being held in full.
+ * Responses that come back uncompressed, e.g. from an etcd that does not compress, are read as they are.
+ *
+ * @author bryan
+ */
+final class EtcdContentEncoding {
+
+    /**
+     * Asks for a gzipped response, unless the request already says what it accepts
+     */
+    static final HttpRequestInterceptor ACCEPT_GZIP = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            if (!request.containsHeader("Accept-Encoding")) {
+                request.addHeader("Accept-Encoding", "gzip");
+            }
+        }
+    };
+
+    private EtcdContentEncoding() {
+    }
+
+    /**
+     * Inflates the body of the response as it is read, if it is gzipped
+     *
+     * @param response
+     * @param content the body as received
+     * @return the body as sent before compression
+     * @throws IOException
+     */
+    static InputStream decode(HttpResponse response, InputStream content) throws IOException {
+        return isGzipped(response) ? new GZIPInputStream(content, 8192) : content;
+    }
+
+    /**
+     * @param response
+     * @return the entity of the response, inflating its content as it is read if it is gzipped
+     */
+    static HttpEntity decode(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        return entity != null && isGzipped(response) ? new GzipDecompressingEntity(entity) : entity;
+    }
+
+    private static boolean isGzipped(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-Encoding");
+        if (header == null) {
+            return false;
+        }
+        String encoding = header.getValue().trim();
+        return "gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding);
+    }
+}
@@ -0,0 +1,21 @@
+package com.cvent.etcd;
+
+/**
+ * Hears how an {@link EtcdLeaderElection} goes for its candidate. Callbacks are made on the client's decode threads, so
+ * they must not block.
+ *
+ * @author bryan
+ */
+public interface EtcdElectionListener {
+
+    /**
+     * Called when the candidate becomes the leader
+     */
+    void onElected();
+
+    /**
+     * Called when the candidate drops out of the election because its key expired or was deleted, whether or not it
+     * had been elected. Start a new election to stand again.
+     */
+    void onLost();
+}
@@ -0,0 +1,132 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Charsets;
+import java.nio.ByteBuffer;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * An application/x-www-form-urlencoded request body, percent-encoded straight into a byte array. Binary values are
+ * encoded from their bytes without going through a String, and string values only take a detour through their UTF-8
+ * bytes when they are not plain ASCII. Encodes exactly like UrlEncodedFormEntity with UTF-8.
+ *
+ * @author bryan
+ */
+final class EtcdForm {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(Charsets.US_ASCII);
+    private static final ContentType CONTENT_TYPE = ContentType.create("application/x-www-form-urlencoded",
+            Charsets.UTF_8);
+
+    private byte[] buf;
+    private int count;
+
+    EtcdForm() {
+        this(64);
+    }
+
+    /**
+     * @param capacity the expected size of the encoded body
+     */
+    EtcdForm(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    /**
+     * Adds a value, a null value adds just the name
+     *
+     * @param name
+     * @param value
+     * @return
+     */
+    EtcdForm add(String name, String value) {
+        separator();
+        append(name);
+        if (value != null) {
+            write('=');
+            append(value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a value given as bytes. The buffer's position is left untouched.
+     *
+     * @param name
+     * @param value
+     * @return
+     */
+    EtcdForm add(String name, ByteBuffer value) {
+        separator();
+        append(name);
+        write('=');
+        ensure(value.remaining());
+        if (value.hasArray()) {
+            append(value.array(), value.arrayOffset() + value.position(), value.remaining());
+        } else {
+            for (int i = value.position(); i < value.limit(); i++) {
+                append(value.get(i));
+            }
+        }
+        return this;
+    }
+
+    HttpEntity toEntity() {
+        return new ByteArrayEntity(buf, 0, count, CONTENT_TYPE);
+    }
+
+    private void separator() {
+        if (count > 0) {
+            write('&');
+        }
+    }
+
+    private void append(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                byte[] bytes = s.getBytes(Charsets.UTF_8);
+                append(bytes, 0, bytes.length);
+                return;
+            }
+        }
+        for (int i = 0; i < s.length(); i++) {
+            append((byte) s.charAt(i));
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            append(bytes[i]);
+        }
+    }
+
+    private void append(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_' || b == '.' || b == '*') {
+            write(b);
+        } else if (b == ' ') {
+            write('+');
+        } else {
+            write('%');
+            write(HEX[(b >> 4) & 0xF]);
+            write(HEX[b & 0xF]);
+        }
+    }
+
+    private void write(int b) {
+        if (count == buf.length) {
+            ensure(1);
+        }
+        buf[count++] = (byte) b;
+    }
+
+    private void ensure(int extra) {
+        if (count + extra > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length * 2, count + extra)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cvent.etcd;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out when a get has been outstanding long enough to be worth hedging, i.e. sending a second copy to another
+ * member. The delay is a percentile of recent get latencies, with a floor so a fast cluster is not flooded with
+ * duplicates. Latencies are kept in two windows so the percentile follows the cluster as it speeds up or slows down,
+ * and it is only recomputed every so often since walking the histogram is not free.
+ *
+ * @author bryan
+ */
+final class EtcdHedger {
+
+    /**
+     * No hedging until this many latencies have been seen, the percentile means little before that
+     */
+    static final int MIN_SAMPLES = 100;
+
+    static final int WINDOW_SIZE = 10000;
+
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final double percentile;
+    private final long minDelayNanos;
+
+    private volatile EtcdLatencyHistogram current = new EtcdLatencyHistogram();
+    private volatile EtcdLatencyHistogram previous;
+    private volatile long delayNanos = -1;
+
+    /**
+     * @param percentile the percentile of get latency after which a get is hedged, e.g. 95
+     * @param minDelay the shortest a get waits before being hedged
+     * @param unit
+     */
+    EtcdHedger(double percentile, long minDelay, TimeUnit unit) {
+        this.percentile = percentile;
+        this.minDelayNanos = unit.toNanos(minDelay);
+    }
+
+    /**
+     * Records how long a single attempt at a get took
+     *
+     * @param latencyNanos
+     */
+    void record(long latencyNanos) {
+        EtcdLatencyHistogram histogram = current;
+        histogram.record(latencyNanos);
+        long count = histogram.getCount();
+        if (count % RECOMPUTE_EVERY == 0) {
+            if (count >= WINDOW_SIZE) {
+                rotate(histogram);
+            }
+            recompute();
+        }
+    }
+
+    /**
+     * @return how long to wait before hedging a get in nanoseconds, or -1 if gets should not be hedged yet
+     */
+    long delayNanos() {
+        return delayNanos;
+    }
+
+    private synchronized void rotate(EtcdLatencyHistogram full) {
+        if (current == full) {
+            previous = full;
+            current = new EtcdLatencyHistogram();
+        }
+    }
+
+    private void recompute() {
+        EtcdLatencyHistogram histogram = previous;
+        if (histogram == null) {
+            histogram = current;
+            if (histogram.getCount() < MIN_SAMPLES) {
+                return;
+            }
+        }
+        delayNanos = Math.max(histogram.getValueAtPercentile(percentile), minDelayNanos);
+    }
+}
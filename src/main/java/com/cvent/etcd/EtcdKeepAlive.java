@@ -0,0 +1,276 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps many ephemeral keys alive, e.g. the registrations of a service instance. Each key is set with a TTL and then
+ * refreshed before the TTL runs out, with a TTL-only update (refresh=true, prevExist=true) that neither resends the
+ * value nor wakes up watchers; this needs etcd 2.3 or later. A key that turns out to have expired or been deleted is
+ * set again.
+ *
+ * All keys share one timing wheel driven by the client's scheduler rather than a timer each, and every refresh is
+ * scheduled at a random point between 40% and 60% of the TTL after the last one, so keys registered together do not
+ * stay in lock step. Refreshes go through the async API and never hold on to a thread.
+ *
+ * Closing the keep-alive stops the refreshes and leaves the keys to expire.
+ *
+ * @author bryan
+ */
+public class EtcdKeepAlive implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdKeepAlive.class);
+
+    static final long TICK_MILLIS = 100;
+    static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final int WHEEL_SLOTS = 512;
+    private static final double MIN_REFRESH_FRACTION = 0.4;
+    private static final double MAX_REFRESH_FRACTION = 0.6;
+    // A refresh that lands with less than this fraction of the TTL to spare is reported as late
+    private static final double LATE_FRACTION = 0.25;
+
+    private final EtcdClient client;
+    private final EtcdKeepAliveListener listener;
+    private final double lateFraction;
+    private final EtcdTimingWheel wheel = new EtcdTimingWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SLOTS);
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> ticker;
+
+    private volatile boolean closed;
+
+    public EtcdKeepAlive(EtcdClient client) {
+        this(client, EtcdKeepAliveListener.NONE);
+    }
+
+    /**
+     * Creates a keep-alive, which starts ticking straight away
+     *
+     * @param client
+     * @param listener told about late refreshes, re-registered keys and errors
+     */
+    public EtcdKeepAlive(EtcdClient client, EtcdKeepAliveListener listener) {
+        this(client, listener, LATE_FRACTION);
+    }
+
+    /**
+     * Creates a keep-alive with its own threshold for late refreshes
+     *
+     * @param client
+     * @param listener
+     * @param lateFraction a refresh that lands with less than this fraction of the TTL to spare is reported as late
+     */
+    EtcdKeepAlive(EtcdClient client, EtcdKeepAliveListener listener, double lateFraction) {
+        this.client = client;
+        this.listener = listener;
+        this.lateFraction = lateFraction;
+        this.ticker = client.getScheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                wheel.advance();
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the key and keeps it alive until it is unregistered or the keep-alive is closed. Registering a key again
+     * replaces its value and TTL.
+     *
+     * @param key
+     * @param value
+     * @param ttl the TTL of the key in seconds
+     * @return the result of setting the key
+     * @throws com.cvent.etcd.EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> register(String key, String value, int ttl) throws EtcdClientException {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        if (closed) {
+            throw new IllegalStateException("The keep-alive is closed");
+        }
+        Registration registration = new Registration(key, value, ttl);
+        Registration previous = registrations.put(key, registration);
+        if (previous != null) {
+            previous.cancel();
+        }
+        return registration.set(false);
+    }
+
+    /**
+     * Stops refreshing the key, which is left to expire
+     *
+     * @param key
+     * @return whether the key was registered
+     */
+    public boolean unregister(String key) {
+        Registration registration = registrations.remove(key);
+        if (registration == null) {
+            return false;
+        }
+        registration.cancel();
+        return true;
+    }
+
+    /**
+     * @return the registered keys
+     */
+    public Set<String> getKeys() {
+        return registrations.keySet();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ticker.cancel(false);
+        for (Registration registration : registrations.values()) {
+            registration.cancel();
+        }
+        registrations.clear();
+    }
+
+    /**
+     * A registered key and its refresh schedule
+     */
+    private final class Registration implements Runnable {
+
+        private final String key;
+        private final String value;
+        private final int ttl;
+        private final long ttlNanos;
+
+        private volatile boolean cancelled;
+        private volatile EtcdTimingWheel.Timeout timeout;
+        // When the last successful refresh was sent, the key lives at least a TTL beyond that
+        private volatile long refreshedAt;
+        private volatile long dueAt;
+
+        Registration(String key, String value, int ttl) {
+            this.key = key;
+            this.value = value;
+            this.ttl = ttl;
+            this.ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+            this.refreshedAt = System.nanoTime();
+            this.dueAt = refreshedAt;
+        }
+
+        void cancel() {
+            cancelled = true;
+            EtcdTimingWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        /**
+         * Refreshes the key, called by the timing wheel
+         */
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final long sentAt = System.nanoTime();
+            ListenableFuture<EtcdResult> future;
+            try {
+                future = client.refreshAsync(key, ttl);
+            } catch (EtcdClientException | RuntimeException e) {
+                failed(e);
+                return;
+            }
+            Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+                @Override
+                public void onSuccess(EtcdResult result) {
+                    if (result == null) {
+                        LOGGER.info("Key {} has expired, registering it again", key);
+                        set(true);
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    if (refreshedAt + ttlNanos - now < ttlNanos * lateFraction) {
+                        long lateMillis = TimeUnit.NANOSECONDS.toMillis(now - dueAt);
+                        LOGGER.warn("Refresh of {} went through {}ms late", key, lateMillis);
+                        listener.onLate(key, lateMillis);
+                    }
+                    refreshedAt = sentAt;
+                    scheduleRefresh();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "refresh of " + key;
+        }
+
+        private ListenableFuture<EtcdResult> set(final boolean again) {
+            final long sentAt = System.nanoTime();
+            ListenableFuture<EtcdResult> future;
+            try {
+                future = client.setAsync(key, value, ttl);
+            } catch (EtcdClientException | RuntimeException e) {
+                failed(e);
+                return Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+                @Override
+                public void onSuccess(EtcdResult result) {
+                    refreshedAt = sentAt;
+                    scheduleRefresh();
+                    if (again) {
+                        listener.onReregistered(key);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            });
+            return future;
+        }
+
+        private void failed(Throwable t) {
+            if (cancelled) {
+                return;
+            }
+            LOGGER.warn("Refresh of {} failed, retrying in {}ms", key, RETRY_DELAY_MILLIS, t);
+            listener.onError(key, t);
+            // The refresh is still due, so keep the original due time for working out how late it is
+            schedule(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void scheduleRefresh() {
+            double fraction = MIN_REFRESH_FRACTION
+                    + ThreadLocalRandom.current().nextDouble() * (MAX_REFRESH_FRACTION - MIN_REFRESH_FRACTION);
+            long delay = (long) (ttlNanos * fraction);
+            dueAt = System.nanoTime() + delay;
+            schedule(delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void schedule(long delay, TimeUnit unit) {
+            if (!cancelled) {
+                timeout = wheel.schedule(this, delay, unit);
+                // cancel() may have run in between, after looking at the previous timeout
+                if (cancelled) {
+                    timeout.cancel();
+                }
+            }
+        }
+    }
+}
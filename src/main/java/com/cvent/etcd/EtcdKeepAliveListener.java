@@ -0,0 +1,51 @@
+package com.cvent.etcd;
+
+/**
+ * Hears about the keys of an {@link EtcdKeepAlive} that need attention. Callbacks are made on the client's decode and
+ * scheduler threads, so they must not block.
+ *
+ * @author bryan
+ */
+public interface EtcdKeepAliveListener {
+
+    /**
+     * A listener which ignores everything, the keep-alive still logs late refreshes and errors
+     */
+    EtcdKeepAliveListener NONE = new EtcdKeepAliveListener() {
+        @Override
+        public void onLate(String key, long lateMillis) {
+        }
+
+        @Override
+        public void onReregistered(String key) {
+        }
+
+        @Override
+        public void onError(String key, Throwable cause) {
+        }
+    };
+
+    /**
+     * Called when a refresh went through with less than a quarter of the key's TTL to spare, a sign that the client,
+     * the network or etcd is struggling to keep up
+     *
+     * @param key
+     * @param lateMillis how long after it was due the refresh went through
+     */
+    void onLate(String key, long lateMillis);
+
+    /**
+     * Called when a key had expired or been deleted, and has been set again
+     *
+     * @param key
+     */
+    void onReregistered(String key);
+
+    /**
+     * Called when a refresh fails. It is retried shortly.
+     *
+     * @param key
+     * @param cause
+     */
+    void onError(String key, Throwable cause);
+}
@@ -0,0 +1,102 @@
+package com.cvent.etcd;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the relative request URIs of keys. Most keys only contain characters that need no escaping, and those are
+ * copied straight into the URI. Other keys are escaped one path segment at a time, with the escaped form of their
+ * parent directory cached, since keys tend to share a handful of directories.
+ *
+ * @author bryan
+ */
+final class EtcdKeyUris {
+
+    static final int MAX_CACHED_DIRECTORIES = 1024;
+
+    private static final ConcurrentMap<String, String> ESCAPED_DIRECTORIES = new ConcurrentHashMap<>();
+
+    private EtcdKeyUris() {
+    }
+
+    /**
+     * Builds prefix + "/" + the escaped key + suffix, with exactly the escaping URLEncoder applies to each segment
+     *
+     * @param prefix
+     * @param key
+     * @param suffix
+     * @return
+     */
+    static URI build(String prefix, String key, String suffix) {
+        int start = key.startsWith("/") ? 1 : 0;
+        StringBuilder sb = new StringBuilder(prefix.length() + key.length() + suffix.length() + 1);
+        sb.append(prefix).append('/');
+        if (isSafe(key, start, key.length())) {
+            sb.append(key, start, key.length());
+        } else {
+            int slash = key.lastIndexOf('/');
+            if (slash >= start) {
+                sb.append(escapeDirectory(key.substring(start, slash))).append('/');
+            }
+            sb.append(urlEscape(key.substring(slash + 1)));
+        }
+        sb.append(suffix);
+        return URI.create(sb.toString());
+    }
+
+    private static String escapeDirectory(String directory) {
+        if (isSafe(directory, 0, directory.length())) {
+            return directory;
+        }
+        String escaped = ESCAPED_DIRECTORIES.get(directory);
+        if (escaped == null) {
+            StringBuilder sb = new StringBuilder(directory.length() + 16);
+            int from = 0;
+            while (true) {
+                int slash = directory.indexOf('/', from);
+                int to = slash < 0 ? directory.length() : slash;
+                if (isSafe(directory, from, to)) {
+                    sb.append(directory, from, to);
+                } else {
+                    sb.append(urlEscape(directory.substring(from, to)));
+                }
+                if (slash < 0) {
+                    break;
+                }
+                sb.append('/');
+                from = slash + 1;
+            }
+            escaped = sb.toString();
+            // A simple cap rather than an LRU; once it is full, further directories are just escaped every time
+            if (ESCAPED_DIRECTORIES.size() < MAX_CACHED_DIRECTORIES) {
+                ESCAPED_DIRECTORIES.putIfAbsent(directory, escaped);
+            }
+        }
+        return escaped;
+    }
+
+    /**
+     * Whether URLEncoder would leave the characters as they are, slashes aside
+     */
+    private static boolean isSafe(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '/' || c == '-' || c == '_' || c == '.' || c == '*')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String urlEscape(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Leader election among any number of candidates, built on {@link EtcdLock}: the candidates queue up in the election's
+ * directory and the one at the front is the leader until it resigns or its key expires, at which point the next one
+ * takes over. Only the candidate right behind each key is woken up when it goes away.
+ *
+ * @author bryan
+ */
+public class EtcdLeaderElection implements Closeable {
+
+    private final EtcdClient client;
+    private final String dir;
+    private final EtcdLock lock;
+    private final EtcdElectionListener listener;
+
+    /**
+     * Creates a candidate, call {@link #start()} to stand for election
+     *
+     * @param client
+     * @param dir the directory of the election
+     * @param candidate the candidate's name, as returned by {@link #getLeader()}
+     * @param ttl the TTL of the candidate's key in seconds, i.e. how long a dead leader can hold on to the leadership
+     * @param listener
+     */
+    public EtcdLeaderElection(EtcdClient client, String dir, String candidate, int ttl,
+            EtcdElectionListener listener) {
+        this.client = client;
+        this.dir = dir;
+        this.lock = new EtcdLock(client, dir, candidate, ttl);
+        this.listener = listener;
+    }
+
+    /**
+     * Stands for election
+     *
+     * @return this candidate
+     */
+    public EtcdLeaderElection start() {
+        Futures.addCallback(lock.acquireAsync(), new FutureCallback<EtcdLock>() {
+            @Override
+            public void onSuccess(EtcdLock result) {
+                listener.onElected();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Losing is reported below, and a cancellation just means the candidate resigned
+            }
+        });
+        Futures.addCallback(lock.getLost(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                listener.onLost();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Never fails
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return whether this candidate is the leader
+     */
+    public boolean isLeader() {
+        return lock.isHeld();
+    }
+
+    /**
+     * Looks up the current leader
+     *
+     * @return the name of the leading candidate, or null if there are no candidates
+     * @throws EtcdClientException
+     */
+    public String getLeader() throws EtcdClientException {
+        List<EtcdNode> candidates = client.listDirectory(dir);
+        EtcdNode leader = null;
+        if (candidates != null) {
+            for (EtcdNode candidate : candidates) {
+                if (leader == null || candidate.getCreatedIndex() < leader.getCreatedIndex()) {
+                    leader = candidate;
+                }
+            }
+        }
+        return leader == null ? null : leader.getValue();
+    }
+
+    /**
+     * Resigns, handing the leadership to the next candidate if this one is the leader
+     */
+    @Override
+    public void close() {
+        lock.close();
+    }
+}
@@ -0,0 +1,229 @@
+package com.cvent.etcd;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the leader of the cluster so writes can go straight to it instead of taking an extra hop through a follower.
+ * Members are asked for /v2/stats/leader in turn: only the leader answers it, with the leader's id, which /v2/members
+ * maps to the leader's client URLs. Older members redirect the question to the leader instead, which identifies it just
+ * as well. Lookups run in the background, one at a time and at most once a second.
+ *
+ * @author bryan
+ */
+final class EtcdLeaderFinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdLeaderFinder.class);
+
+    static final long MIN_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final URI STATS_LEADER = URI.create("v2/stats/leader");
+    private static final URI MEMBERS = URI.create("v2/members");
+
+    private final EtcdCluster cluster;
+    private final CloseableHttpAsyncClient httpClient;
+    private final RequestConfig requestConfig;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastRefresh = System.nanoTime() - MIN_REFRESH_INTERVAL_NANOS;
+
+    EtcdLeaderFinder(EtcdCluster cluster, CloseableHttpAsyncClient httpClient, RequestConfig requestConfig) {
+        this.cluster = cluster;
+        this.httpClient = httpClient;
+        // Redirects are what identify the leader on older members, so they must not be followed
+        this.requestConfig = RequestConfig.copy(requestConfig).setRedirectsEnabled(false).build();
+    }
+
+    /**
+     * Looks for the leader if it is not known
+     */
+    void findIfUnknown() {
+        if (cluster.getLeader() == null) {
+            refresh();
+        }
+    }
+
+    /**
+     * Looks for the leader again, e.g. after etcd reported an election, unless it was looked for very recently
+     */
+    void refresh() {
+        if (cluster.size() < 2 || System.nanoTime() - lastRefresh < MIN_REFRESH_INTERVAL_NANOS
+                || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        lastRefresh = System.nanoTime();
+        ask(0);
+    }
+
+    /**
+     * Points writes at a member a follower redirected a write to
+     *
+     * @param response the follower's response
+     * @return the member redirected to, null if the response is not a redirect to a member
+     */
+    EtcdCluster.Member redirected(HttpResponse response) {
+        URI location = location(response);
+        EtcdCluster.Member leader = location == null ? null : cluster.find(location);
+        if (leader != null && leader != cluster.getLeader()) {
+            LOGGER.debug("Redirected to etcd leader {}", leader);
+            cluster.setLeader(leader);
+        }
+        return leader;
+    }
+
+    private void ask(final int index) {
+        if (index >= cluster.size()) {
+            LOGGER.debug("No etcd member claims to be the leader");
+            found(null);
+            return;
+        }
+
+        final EtcdCluster.Member member = cluster.getMembers().get(index);
+        execute(member.resolve(STATS_LEADER), new Callback() {
+            @Override
+            void completed(int status, HttpResponse response) throws IOException {
+                if (status == HttpStatus.SC_OK) {
+                    String id = text(read(response).get("leader"));
+                    if (id != null) {
+                        resolve(member, id);
+                        return;
+                    }
+                } else {
+                    URI location = location(response);
+                    EtcdCluster.Member leader = location == null ? null : cluster.find(location);
+                    if (leader != null) {
+                        found(leader);
+                        return;
+                    }
+                }
+                ask(index + 1);
+            }
+
+            @Override
+            void failed() {
+                ask(index + 1);
+            }
+        });
+    }
+
+    /**
+     * Maps the leader's id to one of the members, falling back to the member that answered as the leader
+     */
+    private void resolve(final EtcdCluster.Member answered, final String id) {
+        execute(answered.resolve(MEMBERS), new Callback() {
+            @Override
+            void completed(int status, HttpResponse response) throws IOException {
+                if (status == HttpStatus.SC_OK) {
+                    for (JsonNode member : read(response).path("members")) {
+                        if (id.equals(text(member.get("id"))) || id.equals(text(member.get("name")))) {
+                            for (JsonNode url : member.path("clientURLs")) {
+                                EtcdCluster.Member leader = cluster.find(URI.create(url.asText()));
+                                if (leader != null) {
+                                    found(leader);
+                                    return;
+                                }
+                            }
+                        }
+                    }
+                }
+                found(answered);
+            }
+
+            @Override
+            void failed() {
+                found(answered);
+            }
+        });
+    }
+
+    private void found(EtcdCluster.Member leader) {
+        if (leader != null && leader != cluster.getLeader()) {
+            LOGGER.debug("Found etcd leader {}", leader);
+        }
+        cluster.setLeader(leader);
+        refreshing.set(false);
+    }
+
+    private void execute(final URI uri, final Callback callback) {
+        HttpGet request = new HttpGet(uri);
+        request.setConfig(requestConfig);
+        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    callback.completed(response.getStatusLine().getStatusCode(), response);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.debug("Could not read etcd leader information", e);
+                    callback.failed();
+                } finally {
+                    HttpEntity entity = response.getEntity();
+                    if (entity != null) {
+                        EntityUtils.consumeQuietly(entity);
+                    }
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                LOGGER.debug("Could not ask {} for the etcd leader", uri, ex);
+                callback.failed();
+            }
+
+            @Override
+            public void cancelled() {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    private static JsonNode read(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new IOException("No body in the response");
+        }
+        try (InputStream in = EtcdContentEncoding.decode(response).getContent()) {
+            return EtcdClient.MAPPER.readTree(in);
+        }
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || !node.isTextual() ? null : node.asText();
+    }
+
+    private static URI location(HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 300 || status >= 400) {
+            return null;
+        }
+        Header header = response.getFirstHeader("Location");
+        if (header == null) {
+            return null;
+        }
+        try {
+            return URI.create(header.getValue());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private abstract static class Callback {
+
+        abstract void completed(int status, HttpResponse response) throws IOException;
+
+        abstract void failed();
+    }
+}
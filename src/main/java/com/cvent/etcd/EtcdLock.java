@@ -0,0 +1,423 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A distributed lock. Contenders queue up by creating in-order keys in the lock's directory, and whoever has the oldest
+ * key holds the lock. Every other contender watches only the key just ahead of its own, so a release wakes up a single
+ * contender rather than all of them, and the lock changes hands within about a watch round trip, without any polling.
+ *
+ * The contenders' keys carry a TTL which is refreshed in the background (with TTL-only updates, so etcd 2.3 or later is
+ * needed), so the lock of a process that dies is freed once its TTL runs out. If a key expires or is deleted anyway,
+ * e.g. because refreshes could not get through, the lock is lost: {@link #getLost()} completes and the lock must no
+ * longer be relied on. The holder watches its own key, so it learns of this as soon as the next contender does.
+ *
+ * The queue is listed with quorum reads, since a follower that has not caught up with this contender's key would make
+ * it look gone.
+ *
+ * Every waiting contender holds a watch, i.e. a connection, so locks with many waiters call for a client with a
+ * separate watch pool, see {@link EtcdClientBuilder#separateWatchPool(boolean)}. A lock is acquired once; to take it
+ * again after releasing it, create a new one.
+ *
+ * @author bryan
+ */
+public class EtcdLock implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdLock.class);
+
+    static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final Comparator<EtcdNode> BY_CREATED_INDEX = new Comparator<EtcdNode>() {
+        @Override
+        public int compare(EtcdNode a, EtcdNode b) {
+            return Long.compare(a.getCreatedIndex(), b.getCreatedIndex());
+        }
+    };
+
+    private final EtcdClient client;
+    private final String dir;
+    private final String value;
+    private final int ttl;
+    private final SettableFuture<EtcdLock> acquired = SettableFuture.create();
+    private final SettableFuture<Void> lost = SettableFuture.create();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private volatile String key;
+    private volatile boolean held;
+    private volatile long refreshedAt;
+    private volatile ScheduledFuture<?> refresher;
+    private volatile ListenableFuture<EtcdResult> pending;
+    /**
+     * Where retries list the queue again, the thread of a blocking acquire while it waits
+     */
+    private volatile Executor executor;
+
+    /**
+     * @param client
+     * @param dir the directory the contenders queue up in, one per lock
+     * @param value stored in this contender's key, e.g. to tell who holds the lock
+     * @param ttl the TTL of this contender's key in seconds
+     */
+    public EtcdLock(EtcdClient client, String dir, String value, int ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.client = client;
+        this.dir = dir;
+        this.value = value;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Joins the queue for the lock, if not already done, without blocking
+     *
+     * @return a future which completes once the lock is held
+     */
+    public ListenableFuture<EtcdLock> acquireAsync() {
+        if (started.compareAndSet(false, true)) {
+            executor = client.parseExecutor();
+            join();
+        }
+        return acquired;
+    }
+
+    /**
+     * Waits for the lock
+     *
+     * @throws EtcdClientException if the lock could not be acquired
+     * @throws InterruptedException
+     */
+    public void acquire() throws EtcdClientException, InterruptedException {
+        tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits for the lock for at most the given time, giving up its place in the queue if it does not get it
+     *
+     * @param timeout
+     * @param unit
+     * @return whether the lock is held
+     * @throws EtcdClientException if the lock could not be acquired
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws EtcdClientException, InterruptedException {
+        // Waits like the client's sync calls, running the work of joining the queue on this thread, so that it can be
+        // called from a callback
+        EtcdClient.CallerExecutor caller = client.enterSync();
+        try {
+            if (!caller.runUntilDone(acquireAsync(), timeout, unit)) {
+                release();
+                return false;
+            }
+        } finally {
+            caller.exit();
+        }
+        try {
+            acquired.get();
+            return true;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * @return whether the lock is currently held
+     */
+    public boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * @return a future which completes if this contender's key expires or is deleted behind its back
+     */
+    public ListenableFuture<Void> getLost() {
+        return lost;
+    }
+
+    /**
+     * @return this contender's key, or null if it has not been created yet
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Releases the lock, or leaves the queue if it is not held yet, by deleting this contender's key
+     *
+     * @throws EtcdClientException
+     */
+    public void release() throws EtcdClientException {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        held = false;
+        stop();
+        acquired.cancel(false);
+        String current = key;
+        if (current != null && !lost.isDone()) {
+            try {
+                client.delete(current);
+            } catch (EtcdClientException e) {
+                if (!e.isEtcdError(EtcdStatusCode.EcodeKeyNotFound.value())) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            release();
+        } catch (EtcdClientException e) {
+            LOGGER.warn("Could not release lock {}, it is freed when its TTL runs out", key, e);
+        }
+    }
+
+    private void join() {
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.createInOrderAsync(dir, value, ttl);
+        } catch (EtcdClientException e) {
+            lose("could not join the queue", e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                key = result.getNode().getKey();
+                refreshedAt = System.nanoTime();
+                if (released.get()) {
+                    // Released while the key was being created, so it is up to us to delete it
+                    deleteQuietly(key);
+                    return;
+                }
+                startRefreshing();
+                check();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                lose("could not join the queue", t);
+            }
+        });
+    }
+
+    /**
+     * Lists the queue and either takes the lock and watches this contender's own key, or watches the contender just
+     * ahead
+     */
+    private void check() {
+        if (released.get() || lost.isDone()) {
+            return;
+        }
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.getAsync(dir, EtcdReadOptions.QUORUM);
+        } catch (EtcdClientException e) {
+            retry(e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                List<EtcdNode> contenders = new ArrayList<>();
+                if (result != null && result.getNode() != null && result.getNode().getNodes() != null) {
+                    contenders.addAll(result.getNode().getNodes());
+                }
+                Collections.sort(contenders, BY_CREATED_INDEX);
+
+                EtcdNode predecessor = null;
+                for (EtcdNode contender : contenders) {
+                    if (contender.getKey().equals(key)) {
+                        // Anything that happens to the watched key after this listing is caught by the watch
+                        if (predecessor == null) {
+                            held = true;
+                            acquired.set(EtcdLock.this);
+                            watch(key, Math.max(result.getIndex(), contender.getModifiedIndex()) + 1);
+                        } else {
+                            long index = Math.max(result.getIndex(), predecessor.getModifiedIndex()) + 1;
+                            watch(predecessor.getKey(), index);
+                        }
+                        return;
+                    }
+                    predecessor = contender;
+                }
+                lose("its key " + key + " is gone", null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retry(t);
+            }
+        });
+    }
+
+    /**
+     * Watches the contender ahead until it is gone, or once the lock is held, this contender's own key
+     */
+    private void watch(final String watched, final long index) {
+        if (released.get() || lost.isDone()) {
+            return;
+        }
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.watch(watched, index, false);
+        } catch (EtcdClientException e) {
+            retry(e);
+            return;
+        }
+        pending = future;
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult event) {
+                if (event == null || event.getNode() == null) {
+                    // etcd timed out the long poll
+                    watch(watched, index);
+                } else if (!isGone(event.getAction())) {
+                    watch(watched, event.getNode().getModifiedIndex() + 1);
+                } else if (watched.equals(key)) {
+                    lose("its key " + key + " is gone (" + event.getAction() + ")", null);
+                } else {
+                    check();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retry(t);
+            }
+        });
+    }
+
+    private static boolean isGone(String action) {
+        return "delete".equals(action) || "expire".equals(action) || "compareAndDelete".equals(action);
+    }
+
+    private void retry(Throwable t) {
+        if (released.get() || lost.isDone()) {
+            return;
+        }
+        LOGGER.debug("Waiting for lock {} failed, retrying in {}ms", dir, RETRY_DELAY_MILLIS, t);
+        try {
+            client.getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                check();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        lose("the client is closed", e);
+                    }
+                }
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            lose("the client is closed", t);
+        }
+    }
+
+    private void startRefreshing() {
+        long period = Math.max(TimeUnit.SECONDS.toMillis(ttl) / 3, 1);
+        refresher = client.getScheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh() {
+        if (released.get() || lost.isDone()) {
+            return;
+        }
+        final long sentAt = System.nanoTime();
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.refreshAsync(key, ttl);
+        } catch (EtcdClientException e) {
+            refreshFailed(e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                if (result == null) {
+                    lose("its key " + key + " has expired", null);
+                } else {
+                    refreshedAt = sentAt;
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                refreshFailed(t);
+            }
+        });
+    }
+
+    private void refreshFailed(Throwable t) {
+        LOGGER.warn("Could not refresh lock key {}", key, t);
+        if (System.nanoTime() - refreshedAt > TimeUnit.SECONDS.toNanos(ttl)) {
+            lose("its key " + key + " could not be refreshed within its TTL", t);
+        }
+    }
+
+    private void lose(String reason, Throwable cause) {
+        if (released.get()) {
+            return;
+        }
+        boolean wasHeld = held;
+        held = false;
+        stop();
+        LOGGER.warn("Lost lock {} ({}held), {}", dir, wasHeld ? "" : "not ", reason);
+        acquired.setException(new EtcdClientException("Lost lock " + dir + ", " + reason, cause));
+        lost.set(null);
+    }
+
+    private void stop() {
+        ScheduledFuture<?> current = refresher;
+        if (current != null) {
+            current.cancel(false);
+        }
+        ListenableFuture<EtcdResult> watch = pending;
+        if (watch != null) {
+            watch.cancel(true);
+        }
+    }
+
+    private void deleteQuietly(String key) {
+        try {
+            client.deleteAsync(key);
+        } catch (EtcdClientException e) {
+            LOGGER.debug("Could not delete lock key {}, it expires with its TTL", key, e);
+        }
+    }
+
+    private static EtcdClientException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof EtcdClientException) {
+            return (EtcdClientException) e.getCause();
+        }
+        return new EtcdClientException("Could not acquire lock", e.getCause());
+    }
+}
@@ -1,5 +1,7 @@
 package com.cvent.etcd;
 
+import com.google.common.base.Charsets;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -14,6 +16,7 @@ public class EtcdNode {
     private long createdIndex;
     private long modifiedIndex;
     private String value;
+    private byte[] valueBytes;
 
     // For TTL keys
     private String expiration;
@@ -48,11 +51,41 @@ public class EtcdNode {
     }
 
     public String getValue() {
+        if (value == null && valueBytes != null) {
+            value = new String(valueBytes, Charsets.UTF_8);
+        }
         return value;
     }
 
     public void setValue(String value) {
         this.value = value;
+        this.valueBytes = null;
+    }
+
+    /**
+     * Gets the value as UTF-8 bytes. Values read with {@link EtcdClient#getBytes(String)} are kept in this form, and
+     * the array is shared rather than copied, so it must not be modified.
+     *
+     * @return
+     */
+    public byte[] getValueBytes() {
+        if (valueBytes == null && value != null) {
+            valueBytes = value.getBytes(Charsets.UTF_8);
+        }
+        return valueBytes;
+    }
+
+    /**
+     * @return the value as a read-only buffer over {@link #getValueBytes()}, or null if there is no value
+     */
+    public ByteBuffer getValueBuffer() {
+        byte[] bytes = getValueBytes();
+        return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    public void setValueBytes(byte[] valueBytes) {
+        this.valueBytes = valueBytes;
+        this.value = null;
     }
 
     public String getExpiration() {
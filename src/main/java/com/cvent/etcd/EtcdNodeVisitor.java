@@ -0,0 +1,19 @@
+package com.cvent.etcd;
+
+/**
+ * Receives the nodes of a subtree one at a time, as {@link EtcdClient#traverse(String, EtcdNodeVisitor)} parses them
+ * off the response. Nodes are visited depth first with every node after its children, so a directory is visited once
+ * all of its content has been; directories never carry their children. Nothing is kept after a node has been visited.
+ *
+ * @author bryan
+ */
+public interface EtcdNodeVisitor {
+
+    /**
+     * Called for every node of the subtree, including the directories and the root of the traversal
+     *
+     * @param node
+     * @return true to carry on, false to stop the traversal and abandon the rest of the response
+     */
+    boolean visit(EtcdNode node);
+}
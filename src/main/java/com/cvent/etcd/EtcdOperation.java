@@ -0,0 +1,19 @@
+package com.cvent.etcd;
+
+/**
+ * The kinds of request the client makes, as reported to {@link EtcdClientMetrics}
+ *
+ * @author bryan
+ */
+public enum EtcdOperation {
+
+    GET,
+    SET,
+    CAS,
+    DELETE,
+    WATCH,
+    /**
+     * Anything that is not a key operation, such as fetching the version
+     */
+    OTHER
+}
@@ -0,0 +1,342 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, read-through cache in front of {@link EtcdClient#get(String)} for keys under a prefix. Entries are
+ * invalidated by a background recursive watch on the prefix, so repeated reads of slow changing keys are served from
+ * memory without going stale.
+ *
+ * Each cached entry remembers the modifiedIndex of the node it holds. A watch event for a key replaces its entry with
+ * a marker carrying the event's modifiedIndex, and a read that was in flight when the event arrived only gets cached if
+ * it is at least as new as the event. If the watch fails or has to resync, everything is invalidated. Keys that do not
+ * exist and recursive reads are never cached.
+ *
+ * The watch starts after the X-Etcd-Index of a quorum read of the prefix, and only reads served at or after that index
+ * are cached, so no change can slip in between a cached read and the first event the watch sees. Until that read has
+ * come back every read goes to etcd. Likewise a read is only cached if it was served at or after the last change the
+ * watch had seen when the read was started, so a member lagging behind the watch cannot put back what it replaced.
+ *
+ * The cached {@link EtcdResult}s are shared between callers and must not be modified.
+ *
+ * @author bryan
+ */
+public class EtcdReadCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdReadCache.class);
+
+    private final EtcdClient client;
+    private final String prefix;
+    private final ConcurrentMap<String, Entry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    // Bumped whenever everything is invalidated, so reads started before that are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    // The index the watch covers changes after, -1 until it is known
+    private volatile long startIndex = -1;
+    // The index of the last change the watch has seen, only written by its callbacks
+    private volatile long appliedIndex;
+    private volatile boolean closed;
+    private volatile EtcdWatcher watcher;
+
+    /**
+     * Creates a cache for the keys under the given prefix and starts watching it
+     *
+     * @param client
+     * @param prefix the subtree to cache, "/" caches everything
+     * @param maximumSize the maximum number of cached keys
+     */
+    public EtcdReadCache(EtcdClient client, String prefix, long maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+        this.client = client;
+        this.prefix = normalize(prefix);
+        Cache<String, Entry> cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.entries = cache.asMap();
+        readStartIndex();
+    }
+
+    /**
+     * Reads the prefix for the index to start watching after. A missing prefix is fine, etcd's error carries the index.
+     */
+    private void readStartIndex() {
+        if (closed) {
+            return;
+        }
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.getWithIndexAsync(prefix, EtcdReadOptions.QUORUM);
+        } catch (EtcdClientException e) {
+            retryStart(e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                startWatch(result == null ? 0L : result.getIndex());
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retryStart(t);
+            }
+        });
+    }
+
+    private void retryStart(Throwable t) {
+        LOGGER.debug("Could not read the index of {}, retrying", prefix, t);
+        try {
+            client.getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    readStartIndex();
+                }
+            }, EtcdWatcher.MIN_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Client closed, not caching {}", prefix);
+        }
+    }
+
+    private void startWatch(long index) {
+        watcher = client.watch(prefix, index + 1, true, new EtcdWatchListener() {
+            @Override
+            public void onEvent(EtcdResult event) {
+                EtcdReadCache.this.onEvent(event);
+            }
+
+            @Override
+            public void onResync(EtcdResult snapshot) {
+                // Changes may have been missed, so nothing cached can be trusted
+                if (snapshot != null) {
+                    applied(snapshot.getIndex());
+                }
+                invalidateAll();
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+                // The watcher picks up from where it left off, but drop everything so nothing goes stale meanwhile
+                LOGGER.debug("Watch on {} failed, invalidating everything", prefix, cause);
+                invalidateAll();
+            }
+        });
+        startIndex = index;
+        if (closed) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Retrieves a key, from memory if possible. Returns null if not found.
+     *
+     * @param key
+     * @return
+     * @throws EtcdClientException
+     */
+    public EtcdResult get(String key) throws EtcdClientException {
+        // Waits like the client's sync calls, so that it can be called from a callback
+        EtcdClient.CallerExecutor caller = client.enterSync();
+        try {
+            return caller.await(getAsync(key));
+        } finally {
+            caller.exit();
+        }
+    }
+
+    /**
+     * Retrieves a key without blocking, from memory if possible. The future yields null if the key is not found.
+     *
+     * @param key
+     * @return
+     * @throws EtcdClientException
+     */
+    public ListenableFuture<EtcdResult> getAsync(String key) throws EtcdClientException {
+        final String normalized = normalize(key);
+        final long start = startIndex;
+        if (closed || start < 0 || !isCovered(normalized)) {
+            return client.getAsync(key);
+        }
+
+        Entry entry = entries.get(normalized);
+        if (entry != null && entry.result != null) {
+            hitCount.incrementAndGet();
+            return Futures.immediateFuture(entry.result);
+        }
+        missCount.incrementAndGet();
+
+        final long readGeneration = generation.get();
+        final long since = Math.max(start, appliedIndex);
+        final Entry loading = new Entry(null, -1);
+        if (entry == null) {
+            entries.putIfAbsent(normalized, loading);
+        }
+
+        // The caller only sees the result once it is stored, so a read made after this one returns is served from it
+        final SettableFuture<EtcdResult> stored = SettableFuture.create();
+        Futures.addCallback(client.getAsync(key), new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                if (result != null && result.getNode() != null && !result.getNode().isDir()
+                        && result.getIndex() >= since && generation.get() == readGeneration) {
+                    store(normalized, loading, new Entry(result, result.getNode().getModifiedIndex()));
+                } else {
+                    entries.remove(normalized, loading);
+                }
+                stored.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                entries.remove(normalized, loading);
+                stored.setException(t);
+            }
+        });
+        return stored;
+    }
+
+    /**
+     * @return the number of reads served from memory
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of cacheable reads that had to go to etcd
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries invalidated by watch events, or by the watch failing
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * @return whether the watch has started, before that reads are not cached
+     */
+    boolean isWatching() {
+        return startIndex >= 0;
+    }
+
+    /**
+     * @return the number of keys currently held
+     */
+    public long size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        EtcdWatcher current = watcher;
+        if (current != null) {
+            current.close();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Stores a freshly read entry, unless a watch event newer than it has come in since the read was started
+     */
+    private void store(String key, Entry loading, Entry loaded) {
+        while (!closed) {
+            Entry current = entries.get(key);
+            if (current == null || current.result != null || (current != loading
+                    && current.modifiedIndex > loaded.modifiedIndex)) {
+                // Evicted, already cached by someone else, or changed since
+                return;
+            }
+            if (entries.replace(key, current, loaded)) {
+                return;
+            }
+        }
+    }
+
+    private void onEvent(EtcdResult event) {
+        if (event.getNode() != null) {
+            invalidate(event.getAction(), event.getNode());
+            applied(event.getNode().getModifiedIndex());
+        }
+    }
+
+    private void applied(long index) {
+        if (index > appliedIndex) {
+            appliedIndex = index;
+        }
+    }
+
+    private void invalidate(String action, EtcdNode node) {
+        String key = node.getKey();
+        Entry current = entries.get(key);
+        if (current != null) {
+            // Keep a marker rather than removing the entry, so a read in flight cannot put back an older value
+            entries.put(key, new Entry(null, node.getModifiedIndex()));
+            if (current.result != null) {
+                invalidationCount.incrementAndGet();
+            }
+        }
+
+        // Deleting or expiring a directory takes everything under it along, nothing else can
+        if (!node.isDir() || !isRemoval(action)) {
+            return;
+        }
+        String children = key.endsWith("/") ? key : key + "/";
+        for (String cached : entries.keySet()) {
+            if (cached.startsWith(children) && entries.remove(cached) != null) {
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+        invalidationCount.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    private static boolean isRemoval(String action) {
+        return "delete".equals(action) || "expire".equals(action) || "compareAndDelete".equals(action);
+    }
+
+    private boolean isCovered(String key) {
+        return prefix.equals("/") || key.equals(prefix) || key.startsWith(prefix + "/");
+    }
+
+    private static String normalize(String key) {
+        return key.startsWith("/") ? key : "/" + key;
+    }
+
+    /**
+     * A cached result, or a marker for a read in flight or for a key that changed at the given modifiedIndex
+     */
+    private static final class Entry {
+
+        private final EtcdResult result;
+        private final long modifiedIndex;
+
+        Entry(EtcdResult result, long modifiedIndex) {
+            this.result = result;
+            this.modifiedIndex = modifiedIndex;
+        }
+    }
+}
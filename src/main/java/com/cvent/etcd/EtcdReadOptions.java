@@ -0,0 +1,72 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Options of a read. Instances are immutable, so the constants can be shared, and each setter returns a copy.
+ *
+ * @author bryan
+ */
+public final class EtcdReadOptions {
+
+    /**
+     * A local read of a single node, what reads without options do
+     */
+    public static final EtcdReadOptions LOCAL = new EtcdReadOptions(EtcdConsistency.LOCAL, false);
+
+    /**
+     * A linearizable read of a single node
+     */
+    public static final EtcdReadOptions QUORUM = new EtcdReadOptions(EtcdConsistency.QUORUM, false);
+
+    private final EtcdConsistency consistency;
+    private final boolean recursive;
+
+    private EtcdReadOptions(EtcdConsistency consistency, boolean recursive) {
+        this.consistency = Preconditions.checkNotNull(consistency, "consistency");
+        this.recursive = recursive;
+    }
+
+    /**
+     * @param consistency
+     * @return a copy of these options with the given consistency
+     */
+    public EtcdReadOptions consistency(EtcdConsistency consistency) {
+        return new EtcdReadOptions(consistency, recursive);
+    }
+
+    /**
+     * @param recursive whether to read the whole subtree of a directory
+     * @return a copy of these options with the given recursion
+     */
+    public EtcdReadOptions recursive(boolean recursive) {
+        return new EtcdReadOptions(consistency, recursive);
+    }
+
+    public EtcdConsistency getConsistency() {
+        return consistency;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @return the query string these options add to a read, empty or starting with '?'
+     */
+    String toQuery() {
+        StringBuilder query = new StringBuilder();
+        if (recursive) {
+            query.append("?recursive=true");
+        }
+        if (consistency == EtcdConsistency.QUORUM) {
+            query.append(query.length() == 0 ? '?' : '&').append("quorum=true");
+        }
+        return query.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "EtcdReadOptions{consistency=" + consistency + ", recursive=" + recursive + '}';
+    }
+}
@@ -70,6 +70,11 @@ public class EtcdResult {
         this.cause = cause;
     }
 
+    /**
+     * The etcd index when the response was produced, taken from the X-Etcd-Index header for successful responses
+     *
+     * @return
+     */
     public int getIndex() {
         return index;
     }
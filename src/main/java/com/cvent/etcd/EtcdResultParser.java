@@ -0,0 +1,288 @@
+package com.cvent.etcd;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming parser for etcd responses. Reads tokens straight off the response stream into {@link EtcdResult} and
+ * {@link EtcdNode} objects, so the body is never copied into an intermediate String and no data binding is involved.
+ * Unknown fields are skipped.
+ *
+ * @author bryan
+ */
+final class EtcdResultParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private EtcdResultParser() {
+    }
+
+    /**
+     * Parses a result from the given stream. Returns null if the stream is empty. The stream is not closed.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    static EtcdResult parse(InputStream in) throws IOException {
+        return parse(in, false);
+    }
+
+    /**
+     * Parses a result from the given stream, optionally keeping node values as UTF-8 bytes, encoded straight from the
+     * parser's buffer without an intermediate String. Returns null if the stream is empty. The stream is not closed.
+     *
+     * @param in
+     * @param binaryValues
+     * @return
+     * @throws IOException
+     */
+    static EtcdResult parse(InputStream in, boolean binaryValues) throws IOException {
+        JsonParser parser = FACTORY.createParser(in);
+        try {
+            return parse(parser, binaryValues);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parses a result from the given stream, handing every node to the visitor as soon as it has been read instead of
+     * building the tree. The returned result has the root node without its children, or no node at all if the
+     * visitor stopped the traversal. Returns null if the stream is empty. The stream is not closed.
+     *
+     * @param in
+     * @param visitor
+     * @return
+     * @throws IOException
+     */
+    static EtcdResult parse(InputStream in, EtcdNodeVisitor visitor) throws IOException {
+        JsonParser parser = FACTORY.createParser(in);
+        EtcdResult result = new EtcdResult();
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            expect(parser, JsonToken.START_OBJECT);
+            return readResult(parser, result, false, visitor);
+        } catch (Stopped e) {
+            return result;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parses a result from the given json String. Returns null if the String is empty.
+     *
+     * @param json
+     * @return
+     * @throws IOException
+     */
+    static EtcdResult parse(String json) throws IOException {
+        JsonParser parser = FACTORY.createParser(json);
+        try {
+            return parse(parser, false);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static EtcdResult parse(JsonParser parser, boolean binaryValues) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return null;
+        }
+        expect(parser, JsonToken.START_OBJECT);
+        return readResult(parser, new EtcdResult(), binaryValues, null);
+    }
+
+    private static EtcdResult readResult(JsonParser parser, EtcdResult result, boolean binaryValues,
+            EtcdNodeVisitor visitor) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "action":
+                    result.setAction(parser.getText());
+                    break;
+                case "node":
+                    expect(parser, JsonToken.START_OBJECT);
+                    EtcdNode node = readNode(parser, binaryValues, visitor);
+                    visit(visitor, node);
+                    result.setNode(node);
+                    break;
+                case "prevNode":
+                    expect(parser, JsonToken.START_OBJECT);
+                    result.setPrevNode(readNode(parser, binaryValues, null));
+                    break;
+                case "errorCode":
+                    result.setErrorCode(parser.getValueAsInt());
+                    break;
+                case "message":
+                    result.setMessage(parser.getText());
+                    break;
+                case "cause":
+                    result.setCause(parser.getText());
+                    break;
+                case "index":
+                    result.setIndex(parser.getValueAsInt());
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        expect(parser, JsonToken.END_OBJECT);
+        return result;
+    }
+
+    private static EtcdNode readNode(JsonParser parser, boolean binaryValues, EtcdNodeVisitor visitor)
+            throws IOException {
+        EtcdNode node = new EtcdNode();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "key":
+                    node.setKey(parser.getText());
+                    break;
+                case "value":
+                    if (binaryValues) {
+                        node.setValueBytes(utf8(parser.getTextCharacters(), parser.getTextOffset(),
+                                parser.getTextLength()));
+                    } else {
+                        node.setValue(parser.getText());
+                    }
+                    break;
+                case "createdIndex":
+                    node.setCreatedIndex(parser.getValueAsLong());
+                    break;
+                case "modifiedIndex":
+                    node.setModifiedIndex(parser.getValueAsLong());
+                    break;
+                case "expiration":
+                    node.setExpiration(parser.getText());
+                    break;
+                case "ttl":
+                    node.setTtl(parser.getValueAsInt());
+                    break;
+                case "dir":
+                    node.setDir(parser.getValueAsBoolean());
+                    break;
+                case "nodes":
+                    expect(parser, JsonToken.START_ARRAY);
+                    node.setNodes(readNodes(parser, binaryValues, visitor));
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        expect(parser, JsonToken.END_OBJECT);
+        return node;
+    }
+
+    /**
+     * Reads the children of a directory. With a visitor they are visited as they are read and null is returned.
+     */
+    private static List<EtcdNode> readNodes(JsonParser parser, boolean binaryValues, EtcdNodeVisitor visitor)
+            throws IOException {
+        List<EtcdNode> nodes = visitor == null ? new ArrayList<EtcdNode>() : null;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            EtcdNode node = readNode(parser, binaryValues, visitor);
+            if (visitor == null) {
+                nodes.add(node);
+            } else {
+                visit(visitor, node);
+            }
+        }
+        expect(parser, JsonToken.END_ARRAY);
+        return nodes;
+    }
+
+    private static void visit(EtcdNodeVisitor visitor, EtcdNode node) {
+        if (visitor != null && !visitor.visit(node)) {
+            throw new Stopped();
+        }
+    }
+
+    /**
+     * Encodes chars as UTF-8 into an array of exactly the right size. Unpaired surrogates become '?', as with
+     * String.getBytes.
+     */
+    static byte[] utf8(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int size = 0;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size++;
+            } else {
+                size += 3;
+            }
+        }
+
+        byte[] bytes = new byte[size];
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                bytes[n++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[n++] = (byte) (0xC0 | (c >> 6));
+                bytes[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                bytes[n++] = (byte) (0xF0 | (cp >> 18));
+                bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[n++] = '?';
+            } else {
+                bytes[n++] = (byte) (0xE0 | (c >> 12));
+                bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.getCurrentToken() != expected) {
+            throw new IOException("Expected " + expected + " but found " + parser.getCurrentToken()
+                    + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Unwinds the parse when a visitor asks to stop
+     */
+    private static final class Stopped extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Stopped() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.cvent.etcd;
+
+/**
+ * Decides whether and when {@link EtcdClient} retries a request that failed without a response. Only idempotent
+ * requests are retried, plus anything whose connection could not be established at all, and every retry goes to
+ * whichever member the cluster picks next. Called on the http client's I/O threads, so it must be thread safe and
+ * cheap.
+ *
+ * @author bryan
+ */
+public interface EtcdRetryPolicy {
+
+    /**
+     * A policy which never retries
+     */
+    EtcdRetryPolicy NONE = new EtcdRetryPolicy() {
+        @Override
+        public long retryDelayMillis(int failures, Throwable cause) {
+            return -1;
+        }
+    };
+
+    /**
+     * @param failures the number of attempts that have failed so far, starting at 1
+     * @param cause why the last attempt failed
+     * @return how long to wait before the next attempt in milliseconds, or a negative number to give up
+     */
+    long retryDelayMillis(int failures, Throwable cause);
+}
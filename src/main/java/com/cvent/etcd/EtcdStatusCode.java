@@ -16,10 +16,13 @@ public enum EtcdStatusCode {
     EcodeNodeExist(105),
     EcodeKeyIsPreserved(106),
     EcodeRootROnly(107),
+    EcodeDirNotEmpty(108),
     EcodeValueRequired(200),
     EcodePrevValueRequired(201),
     EcodeTTLNaN(202),
     EcodeIndexNaN(203),
+    EcodeRefreshValue(209),
+    EcodeRefreshTTLRequired(212),
     EcodeRaftInternal(300),
     EcodeLeaderElect(301),
     EcodeWatcherCleared(400),
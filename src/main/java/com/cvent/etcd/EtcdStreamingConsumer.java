@@ -0,0 +1,87 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Hands a response body to a reader thread as it arrives, instead of buffering all of it like the default consumer.
+ * The body goes through a fixed size buffer; while it is full, the connection stops reading from the socket until the
+ * reader catches up, so memory use does not depend on the size of the response.
+ *
+ * @author bryan
+ */
+final class EtcdStreamingConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE, HeapByteBufferAllocator.INSTANCE);
+    private final SettableFuture<HttpResponse> head = SettableFuture.create();
+    private volatile HttpResponse response;
+    private volatile boolean completed;
+
+    /**
+     * @return a future of the response, set as soon as its head has arrived
+     */
+    ListenableFuture<HttpResponse> getHead() {
+        return head;
+    }
+
+    /**
+     * @return the body, blocking reads until more of it arrives. Reads fail once the request fails or is cancelled.
+     */
+    InputStream getContent() {
+        return new ContentInputStream(buffer);
+    }
+
+    /**
+     * @return whether the request failed in transit, before its response arrived or while its body was coming in
+     */
+    boolean isFailed() {
+        return response == null || getException() != null;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.response = response;
+        head.set(response);
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        buffer.consumeContent(decoder, ioctrl);
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+        completed = true;
+        buffer.close();
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (!completed) {
+            Exception e = getException();
+            head.setException(e != null ? e : new CancellationException("Request cancelled"));
+            // Wakes up the reader, which then sees the end of the stream
+            buffer.shutdown();
+        }
+    }
+}
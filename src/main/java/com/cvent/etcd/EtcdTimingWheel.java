@@ -0,0 +1,119 @@
+package com.cvent.etcd;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel. Timeouts are dropped into one of a fixed number of slots by their deadline, and every tick
+ * only looks at the timeouts in one slot, so scheduling and cancelling cost the same however many timeouts there are,
+ * at the price of firing at tick resolution. Timeouts can be scheduled and cancelled from any thread; they are run by
+ * whoever calls {@link #advance()}, one at a time, so they must be short.
+ *
+ * @author bryan
+ */
+final class EtcdTimingWheel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdTimingWheel.class);
+
+    private final long tickNanos;
+    private final Deque<Timeout>[] slots;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    // Guarded by this
+    private long tick;
+
+    /**
+     * @param tickDuration the resolution of the wheel
+     * @param unit
+     * @param slotCount the number of slots, timeouts further out than this many ticks go round the wheel more than once
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EtcdTimingWheel(long tickDuration, TimeUnit unit, int slotCount) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.slots = new Deque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Runs the task once the delay has passed, on the next tick after that
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return the timeout, which can be cancelled
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs every timeout that is due, to be called once per tick
+     */
+    synchronized void advance() {
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (!timeout.cancelled) {
+                // Round up, so nothing fires early, but never into a tick that has already gone by
+                long deadline = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+                timeout.deadlineTick = Math.max(deadline, tick);
+                slots[(int) (timeout.deadlineTick % slots.length)].add(timeout);
+            }
+        }
+
+        for (; tick <= now; tick++) {
+            Iterator<Timeout> it = slots[(int) (tick % slots.length)].iterator();
+            while (it.hasNext()) {
+                timeout = it.next();
+                if (timeout.cancelled) {
+                    it.remove();
+                } else if (timeout.deadlineTick <= tick) {
+                    it.remove();
+                    run(timeout);
+                }
+            }
+        }
+    }
+
+    private static void run(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Timeout {} failed", timeout.task, e);
+        }
+    }
+
+    /**
+     * A scheduled task
+     */
+    static final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile boolean cancelled;
+        private long deadlineTick;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Stops the task from running, if it has not already
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory mirror of a subtree. The subtree is loaded with a recursive get and kept current by a recursive
+ * {@link EtcdWatcher}. Reads are served from an immutable snapshot, so any number of readers can use it without ever
+ * waiting for each other or for the watcher.
+ *
+ * Building a snapshot copies the whole tree, so changes are only applied to a working copy and the first read after
+ * them builds the next snapshot. A burst of changes costs one copy rather than one per change, and changes nobody
+ * reads cost none. A read that finds the working copy in use serves the last snapshot instead of waiting for it.
+ *
+ * The {@link EtcdNode}s handed out are shared and must not be modified; directories are returned without their
+ * children, use {@link #listDirectory(String)} or {@link #scan(String)} instead.
+ *
+ * @author bryan
+ */
+public class EtcdTreeCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdTreeCache.class);
+
+    private final EtcdClient client;
+    private final String prefix;
+
+    // The working copy of the tree and the index it reflects, changed by the watcher's callbacks and copied by reads
+    private final Lock lock = new ReentrantLock();
+    private final TreeMap<String, EtcdNode> nodes = new TreeMap<>();
+    private long index;
+    // Whether the working copy has changed since the snapshot was built
+    private volatile boolean changed;
+
+    private volatile Snapshot snapshot = new Snapshot(ImmutableSortedMap.<String, EtcdNode>of(),
+            ImmutableMap.<String, ImmutableList<EtcdNode>>of(), 0);
+    private volatile EtcdWatcher watcher;
+
+    /**
+     * Creates a mirror of the given subtree, call {@link #start()} to load it
+     *
+     * @param client
+     * @param prefix
+     */
+    public EtcdTreeCache(EtcdClient client, String prefix) {
+        this.client = client;
+        this.prefix = normalize(prefix);
+    }
+
+    /**
+     * Loads the subtree and starts watching it from the index of that read. The subtree does not have to exist yet.
+     *
+     * @return this cache
+     * @throws EtcdClientException if the subtree could not be loaded
+     */
+    public EtcdTreeCache start() throws EtcdClientException {
+        // A missing prefix is fine, etcd's error carries the index to watch from too
+        EtcdResult result = client.getWithIndex(prefix, EtcdReadOptions.LOCAL.recursive(true));
+        lock.lock();
+        try {
+            if (!result.isError()) {
+                load(result);
+            }
+            // Built right away, so that reads see the loaded tree even when they find the watcher busy
+            index = result.getIndex();
+            snapshot = build();
+        } finally {
+            lock.unlock();
+        }
+        Long watchIndex = result.getIndex() > 0 ? result.getIndex() + 1L : null;
+
+        watcher = client.watch(prefix, watchIndex, true, new EtcdWatchListener() {
+            @Override
+            public void onEvent(EtcdResult event) {
+                lock.lock();
+                try {
+                    apply(event);
+                    markChanged(event.getNode().getModifiedIndex());
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void onResync(EtcdResult snapshot) {
+                lock.lock();
+                try {
+                    nodes.clear();
+                    if (snapshot != null) {
+                        load(snapshot);
+                    }
+                    markChanged(snapshot == null ? 0 : snapshot.getIndex());
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+                LOGGER.debug("Watch on {} failed, serving the last snapshot until it recovers", prefix, cause);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Gets a node from the mirror. Returns null if not found.
+     *
+     * @param key
+     * @return
+     */
+    public EtcdNode get(String key) {
+        return snapshot().nodes.get(normalize(key));
+    }
+
+    /**
+     * Lists the direct children of a directory, in key order. Returns null if there is no such directory.
+     *
+     * @param key
+     * @return
+     */
+    public List<EtcdNode> listDirectory(String key) {
+        String normalized = normalize(key);
+        Snapshot current = snapshot();
+        List<EtcdNode> children = current.children.get(normalized);
+        if (children == null) {
+            EtcdNode node = current.nodes.get(normalized);
+            return (node != null && node.isDir()) || normalized.equals(prefix) ? ImmutableList.<EtcdNode>of() : null;
+        }
+        return children;
+    }
+
+    /**
+     * Returns every node below the given key, in key order
+     *
+     * @param key
+     * @return
+     */
+    public SortedMap<String, EtcdNode> scan(String key) {
+        String normalized = normalize(key);
+        Snapshot current = snapshot();
+        if (normalized.equals("/")) {
+            return current.nodes;
+        }
+        // '0' is the character after '/', so this covers exactly the keys below this one
+        return current.nodes.subMap(normalized + "/", normalized + "0");
+    }
+
+    /**
+     * @return the etcd index the current snapshot reflects
+     */
+    public long getIndex() {
+        return snapshot().index;
+    }
+
+    /**
+     * @return the number of keys and directories in the mirror
+     */
+    public int size() {
+        return snapshot().nodes.size();
+    }
+
+    @Override
+    public void close() {
+        EtcdWatcher current = watcher;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void load(EtcdResult result) {
+        if (result.getNode() != null) {
+            loadNode(result.getNode());
+        }
+    }
+
+    private void loadNode(EtcdNode node) {
+        if (isBelowPrefix(node.getKey())) {
+            nodes.put(node.getKey(), copy(node));
+        }
+        if (node.getNodes() != null) {
+            for (EtcdNode child : node.getNodes()) {
+                loadNode(child);
+            }
+        }
+    }
+
+    private void apply(EtcdResult event) {
+        EtcdNode node = event.getNode();
+        String key = normalize(node.getKey());
+        switch (Strings.nullToEmpty(event.getAction())) {
+            case "delete":
+            case "expire":
+            case "compareAndDelete":
+                nodes.remove(key);
+                if (key.equals("/")) {
+                    nodes.clear();
+                } else {
+                    nodes.subMap(key + "/", key + "0").clear();
+                }
+                break;
+            default:
+                if (!isBelowPrefix(key)) {
+                    break;
+                }
+                nodes.put(key, copy(node));
+                // Setting a key creates its parent directories implicitly
+                for (String parent = parent(key); isBelowPrefix(parent); parent = parent(parent)) {
+                    if (!nodes.containsKey(parent)) {
+                        EtcdNode dir = new EtcdNode();
+                        dir.setKey(parent);
+                        dir.setDir(true);
+                        dir.setCreatedIndex(node.getModifiedIndex());
+                        dir.setModifiedIndex(node.getModifiedIndex());
+                        nodes.put(parent, dir);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void markChanged(long index) {
+        this.index = index;
+        changed = true;
+    }
+
+    /**
+     * Builds a snapshot of the working copy if it has changed since the last one, unless another thread holds it
+     */
+    private Snapshot snapshot() {
+        if (changed && lock.tryLock()) {
+            try {
+                if (changed) {
+                    snapshot = build();
+                    changed = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return snapshot;
+    }
+
+    private Snapshot build() {
+        Map<String, ImmutableList.Builder<EtcdNode>> children = new HashMap<>();
+        for (EtcdNode node : nodes.values()) {
+            String parent = parent(node.getKey());
+            ImmutableList.Builder<EtcdNode> siblings = children.get(parent);
+            if (siblings == null) {
+                siblings = ImmutableList.builder();
+                children.put(parent, siblings);
+            }
+            siblings.add(node);
+        }
+
+        ImmutableMap.Builder<String, ImmutableList<EtcdNode>> builder = ImmutableMap.builder();
+        for (Map.Entry<String, ImmutableList.Builder<EtcdNode>> entry : children.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().build());
+        }
+        return new Snapshot(ImmutableSortedMap.copyOfSorted(nodes), builder.build(), index);
+    }
+
+    private boolean isBelowPrefix(String key) {
+        if (key == null || key.equals(prefix)) {
+            return false;
+        }
+        return prefix.equals("/") || key.startsWith(prefix + "/");
+    }
+
+    private static EtcdNode copy(EtcdNode node) {
+        EtcdNode copy = new EtcdNode();
+        copy.setKey(node.getKey());
+        copy.setValue(node.getValue());
+        copy.setDir(node.isDir());
+        copy.setCreatedIndex(node.getCreatedIndex());
+        copy.setModifiedIndex(node.getModifiedIndex());
+        copy.setExpiration(node.getExpiration());
+        copy.setTtl(node.getTtl());
+        return copy;
+    }
+
+    private static String parent(String key) {
+        int slash = key.lastIndexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        return slash == 0 ? "/" : key.substring(0, slash);
+    }
+
+    private static String normalize(String key) {
+        if (!key.startsWith("/")) {
+            key = "/" + key;
+        }
+        if (key.length() > 1 && key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * An immutable view of the tree at a given index
+     */
+    private static final class Snapshot {
+
+        private final ImmutableSortedMap<String, EtcdNode> nodes;
+        private final ImmutableMap<String, ImmutableList<EtcdNode>> children;
+        private final long index;
+
+        Snapshot(ImmutableSortedMap<String, EtcdNode> nodes, ImmutableMap<String, ImmutableList<EtcdNode>> children,
+                long index) {
+            this.nodes = nodes;
+            this.children = children;
+            this.index = index;
+        }
+    }
+}
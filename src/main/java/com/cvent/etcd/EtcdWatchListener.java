@@ -0,0 +1,34 @@
+package com.cvent.etcd;
+
+/**
+ * Receives the events of an {@link EtcdWatcher}. Callbacks are made one at a time, in index order, on the client's
+ * decode threads (see {@link EtcdClientBuilder#decodeExecutor(java.util.concurrent.Executor)}), so they must not
+ * block.
+ *
+ * @author bryan
+ */
+public interface EtcdWatchListener {
+
+    /**
+     * Called for every change to the watched key or subtree
+     *
+     * @param event the result of the watch, with the action and the changed node
+     */
+    void onEvent(EtcdResult event);
+
+    /**
+     * Called when etcd no longer has the history needed to continue from the last event, with a fresh read of the
+     * watched key. Anything derived from earlier events should be rebuilt from it; events continue from its index.
+     *
+     * @param snapshot the result of reading the watched key (recursively for recursive watches), or null if the key
+     * does not exist
+     */
+    void onResync(EtcdResult snapshot);
+
+    /**
+     * Called when a watch request fails. The watcher keeps going and re-arms from where it left off after a backoff.
+     *
+     * @param cause
+     */
+    void onError(Throwable cause);
+}
@@ -0,0 +1,436 @@
+package com.cvent.etcd;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves many logical watches over a few shared long polls. The multiplexer is given the prefixes the watched keys live
+ * under, and all watches on keys under a prefix share one recursive {@link EtcdWatcher} on it, whose events are fanned
+ * out through a trie of path segments to the listeners of the changed key and its ancestors. So watching thousands of
+ * keys under a handful of prefixes takes a handful of connections and etcd watchers, rather than one per key.
+ *
+ * A prefix is only watched while there are watches under it. Logical watches see the changes made after the shared
+ * watch on their prefix is armed; there is no asking for earlier events by index. As with etcd's own watches, deleting
+ * or expiring a directory is delivered to the watches on the keys below it too, including when the directory is above
+ * the prefix. When the shared watch has to resync,
+ * each listener is handed the part of the fresh read at its own key.
+ *
+ * Listeners of a prefix are called one at a time, in index order, on the client's decode threads, so they must not
+ * block.
+ *
+ * @author bryan
+ */
+public class EtcdWatchMultiplexer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdWatchMultiplexer.class);
+
+    private static final Comparator<String> LONGEST_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int byLength = Integer.compare(b.length(), a.length());
+            return byLength != 0 ? byLength : a.compareTo(b);
+        }
+    };
+
+    private final EtcdClient client;
+    private final List<String> prefixes;
+
+    // Guarded by this
+    private final Map<String, SharedWatch> watches = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @param client
+     * @param prefixes the directories the watched keys live under
+     */
+    public EtcdWatchMultiplexer(EtcdClient client, String... prefixes) {
+        this(client, Arrays.asList(prefixes));
+    }
+
+    /**
+     * @param client
+     * @param prefixes the directories the watched keys live under. A key under several of them is served by the
+     * longest.
+     */
+    public EtcdWatchMultiplexer(EtcdClient client, Collection<String> prefixes) {
+        if (prefixes.isEmpty()) {
+            throw new IllegalArgumentException("At least one prefix is needed");
+        }
+        List<String> normalized = new ArrayList<>();
+        for (String prefix : prefixes) {
+            normalized.add(normalize(prefix));
+        }
+        Collections.sort(normalized, LONGEST_FIRST);
+        this.client = client;
+        this.prefixes = Collections.unmodifiableList(normalized);
+    }
+
+    /**
+     * Watches a key, or the subtree below it, until the returned handle is closed
+     *
+     * @param key a key under one of the prefixes, or a prefix itself
+     * @param recursive whether changes to the keys below it are wanted too
+     * @param listener
+     * @return the handle which ends the watch
+     * @throws IllegalArgumentException if the key is not under any of the prefixes
+     */
+    public Closeable watch(String key, boolean recursive, EtcdWatchListener listener) {
+        String normalized = normalize(key);
+        String prefix = prefixOf(normalized);
+        if (prefix == null) {
+            throw new IllegalArgumentException("Key " + key + " is not under any of " + prefixes);
+        }
+        Subscription subscription = new Subscription(prefix, normalized, recursive, listener);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The multiplexer is closed");
+            }
+            SharedWatch watch = watches.get(prefix);
+            if (watch == null) {
+                watch = new SharedWatch(prefix);
+                watches.put(prefix, watch);
+            }
+            watch.add(subscription);
+            if (watch.watcher == null) {
+                LOGGER.debug("Starting shared watch on {}", prefix);
+                watch.watcher = client.watch(prefix, null, true, watch);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * @return the index the shared watch on the given prefix will ask for next, or null if it has not read the current
+     * index yet or the prefix is not watched
+     */
+    synchronized Long getNextIndex(String prefix) {
+        SharedWatch watch = watches.get(normalize(prefix));
+        return watch == null ? null : watch.watcher.getNextIndex();
+    }
+
+    /**
+     * @return the prefixes currently being watched, one long poll each
+     */
+    public synchronized Set<String> getWatchedPrefixes() {
+        return new TreeSet<>(watches.keySet());
+    }
+
+    /**
+     * Ends every watch
+     */
+    @Override
+    public void close() {
+        List<SharedWatch> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<>(watches.values());
+            watches.clear();
+        }
+        for (SharedWatch watch : open) {
+            watch.watcher.close();
+        }
+    }
+
+    private String prefixOf(String key) {
+        for (String prefix : prefixes) {
+            if (isUnder(key, prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        SharedWatch watch = watches.get(subscription.prefix);
+        if (watch == null || !watch.remove(subscription)) {
+            return;
+        }
+        if (watch.subscriptions == 0) {
+            LOGGER.debug("Stopping shared watch on {}, nothing is watched under it any more", watch.prefix);
+            watches.remove(watch.prefix);
+            watch.watcher.close();
+        }
+    }
+
+    private static boolean isUnder(String key, String prefix) {
+        return key.equals(prefix) || "/".equals(prefix)
+                || (key.startsWith(prefix) && key.charAt(prefix.length()) == '/');
+    }
+
+    /**
+     * @return the path segments of the key below the prefix
+     */
+    private static String[] segments(String prefix, String key) {
+        int start = "/".equals(prefix) ? 1 : prefix.length() + 1;
+        if (start >= key.length()) {
+            return new String[0];
+        }
+        return key.substring(start).split("/");
+    }
+
+    private static boolean isGone(String action) {
+        return "delete".equals(action) || "expire".equals(action) || "compareAndDelete".equals(action);
+    }
+
+    private static String normalize(String key) {
+        if (!key.startsWith("/")) {
+            key = "/" + key;
+        }
+        if (key.length() > 1 && key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * One logical watch
+     */
+    private final class Subscription implements Closeable {
+
+        private final String prefix;
+        private final String key;
+        private final boolean recursive;
+        private final EtcdWatchListener listener;
+
+        private volatile boolean closed;
+
+        Subscription(String prefix, String key, boolean recursive, EtcdWatchListener listener) {
+            this.prefix = prefix;
+            this.key = key;
+            this.recursive = recursive;
+            this.listener = listener;
+        }
+
+        void onEvent(EtcdResult event) {
+            if (closed) {
+                return;
+            }
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                LOGGER.error("Watch listener on {} failed to handle an event", key, e);
+            }
+        }
+
+        void onResync(EtcdResult snapshot) {
+            if (closed) {
+                return;
+            }
+            try {
+                listener.onResync(snapshot);
+            } catch (RuntimeException e) {
+                LOGGER.error("Watch listener on {} failed to resync", key, e);
+            }
+        }
+
+        void onError(Throwable cause) {
+            if (closed) {
+                return;
+            }
+            try {
+                listener.onError(cause);
+            } catch (RuntimeException e) {
+                LOGGER.error("Watch listener on {} failed to handle an error", key, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                remove(this);
+            }
+        }
+    }
+
+    /**
+     * A node of the trie, holding the watches on one key. Reads happen on the watcher's callbacks without locking,
+     * changes are made under the multiplexer's lock.
+     */
+    private static final class TrieNode {
+
+        private final ConcurrentMap<String, TrieNode> children = new ConcurrentHashMap<>();
+        private final List<Subscription> exact = new CopyOnWriteArrayList<>();
+        private final List<Subscription> recursive = new CopyOnWriteArrayList<>();
+
+        boolean isEmpty() {
+            return children.isEmpty() && exact.isEmpty() && recursive.isEmpty();
+        }
+
+        /**
+         * Collects every watch at and below this node
+         */
+        void collect(List<Subscription> into) {
+            into.addAll(exact);
+            into.addAll(recursive);
+            for (TrieNode child : children.values()) {
+                child.collect(into);
+            }
+        }
+    }
+
+    /**
+     * The shared watch on one prefix, and the trie of the watches it serves
+     */
+    private final class SharedWatch implements EtcdWatchListener {
+
+        private final String prefix;
+        private final TrieNode root = new TrieNode();
+
+        // Guarded by the multiplexer
+        private int subscriptions;
+        private EtcdWatcher watcher;
+
+        SharedWatch(String prefix) {
+            this.prefix = prefix;
+        }
+
+        void add(Subscription subscription) {
+            TrieNode node = root;
+            for (String segment : segments(prefix, subscription.key)) {
+                TrieNode child = node.children.get(segment);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            (subscription.recursive ? node.recursive : node.exact).add(subscription);
+            subscriptions++;
+        }
+
+        boolean remove(Subscription subscription) {
+            String[] segments = segments(prefix, subscription.key);
+            TrieNode[] path = new TrieNode[segments.length + 1];
+            path[0] = root;
+            for (int i = 0; i < segments.length; i++) {
+                path[i + 1] = path[i].children.get(segments[i]);
+                if (path[i + 1] == null) {
+                    return false;
+                }
+            }
+            TrieNode node = path[segments.length];
+            if (!(subscription.recursive ? node.recursive : node.exact).remove(subscription)) {
+                return false;
+            }
+            subscriptions--;
+            // Prune the branch if nothing is watched along it any more
+            for (int i = segments.length; i > 0 && path[i].isEmpty(); i--) {
+                path[i - 1].children.remove(segments[i - 1]);
+            }
+            return true;
+        }
+
+        @Override
+        public void onEvent(EtcdResult event) {
+            String key = normalize(event.getNode().getKey());
+            boolean gone = isGone(event.getAction());
+            List<Subscription> targets = new ArrayList<>();
+            if (!isUnder(key, prefix)) {
+                // Only the removal of a directory above the prefix reaches this watch, and it takes every key along
+                if (gone && isUnder(prefix, key)) {
+                    root.collect(targets);
+                    deliver(targets, event);
+                }
+                return;
+            }
+            TrieNode node = root;
+            targets.addAll(node.recursive);
+            for (String segment : segments(prefix, key)) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    break;
+                }
+                targets.addAll(node.recursive);
+            }
+            if (node != null) {
+                targets.addAll(node.exact);
+                if (gone) {
+                    // Everything below a deleted or expired directory is gone with it. Only a directory can have
+                    // anything below it, so this does not depend on the event marking the key as one.
+                    for (TrieNode child : node.children.values()) {
+                        child.collect(targets);
+                    }
+                }
+            }
+            deliver(targets, event);
+        }
+
+        private void deliver(List<Subscription> targets, EtcdResult event) {
+            for (Subscription subscription : targets) {
+                subscription.onEvent(event);
+            }
+        }
+
+        @Override
+        public void onResync(EtcdResult snapshot) {
+            List<Subscription> targets = new ArrayList<>();
+            root.collect(targets);
+            for (Subscription subscription : targets) {
+                subscription.onResync(slice(snapshot, subscription.key));
+            }
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            List<Subscription> targets = new ArrayList<>();
+            root.collect(targets);
+            for (Subscription subscription : targets) {
+                subscription.onError(cause);
+            }
+        }
+
+        /**
+         * Finds the given key in a recursive read of the prefix
+         *
+         * @return a result for just that key, or null if it does not exist
+         */
+        private EtcdResult slice(EtcdResult snapshot, String key) {
+            if (snapshot == null || snapshot.getNode() == null) {
+                return null;
+            }
+            EtcdNode node = snapshot.getNode();
+            if (!key.equals(prefix)) {
+                String path = "/".equals(prefix) ? "" : prefix;
+                for (String segment : segments(prefix, key)) {
+                    path += "/" + segment;
+                    node = child(node, path);
+                    if (node == null) {
+                        return null;
+                    }
+                }
+            }
+            EtcdResult result = new EtcdResult();
+            result.setAction(snapshot.getAction());
+            result.setNode(node);
+            result.setIndex(snapshot.getIndex());
+            return result;
+        }
+
+        private EtcdNode child(EtcdNode parent, String key) {
+            if (parent.getNodes() == null) {
+                return null;
+            }
+            for (EtcdNode child : parent.getNodes()) {
+                if (key.equals(normalize(child.getKey()))) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.Closeable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A continuous watch on a key or subtree. Wraps the one-shot {@link EtcdClient#watch(String, Long, boolean)} in a loop
+ * that re-arms at the modifiedIndex of the last event + 1, so no event is lost or delivered twice between re-arms. If
+ * etcd has compacted the history the watch needs (EcodeEventIndexCleared) or dropped the watcher (EcodeWatcherCleared),
+ * the key is read again and handed to {@link EtcdWatchListener#onResync(EtcdResult)} before events continue from the
+ * index of that read. Failed requests are retried with an exponential backoff.
+ *
+ * A watcher started without an index first reads the key to learn etcd's current index and then watches from the
+ * index after it, so that it sees every change made after that read, however long each long poll takes to reach etcd.
+ *
+ * The loop is driven entirely by future callbacks, so it does not hold on to a thread while waiting.
+ *
+ * @author bryan
+ */
+public class EtcdWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EtcdWatcher.class);
+
+    static final long MIN_RETRY_DELAY_MILLIS = 100;
+    static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final EtcdClient client;
+    private final String key;
+    private final boolean recursive;
+    private final EtcdWatchListener listener;
+
+    // Only touched from the callback chain, which never runs concurrently with itself
+    private volatile Long nextIndex;
+    private int failures;
+
+    private volatile boolean closed;
+    private volatile ListenableFuture<EtcdResult> pending;
+
+    /**
+     * Creates a watcher, call {@link #start()} to start watching
+     *
+     * @param client
+     * @param key
+     * @param index the index of the first event wanted, or null to start with the changes after the current index
+     * @param recursive
+     * @param listener
+     */
+    public EtcdWatcher(EtcdClient client, String key, Long index, boolean recursive, EtcdWatchListener listener) {
+        this.client = client;
+        this.key = key;
+        this.nextIndex = index;
+        this.recursive = recursive;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching
+     *
+     * @return this watcher
+     */
+    public EtcdWatcher start() {
+        arm();
+        return this;
+    }
+
+    /**
+     * @return the index the watcher will ask for next, or null if it has not read the current index yet
+     */
+    public Long getNextIndex() {
+        return nextIndex;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ListenableFuture<EtcdResult> future = pending;
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    private void arm() {
+        if (closed) {
+            return;
+        }
+        if (nextIndex == null) {
+            readIndex();
+            return;
+        }
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.watch(key, nextIndex, recursive);
+        } catch (EtcdClientException e) {
+            retry(e);
+            return;
+        }
+        pending = future;
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                failures = 0;
+                if (result != null && result.getNode() != null) {
+                    long index = result.getNode().getModifiedIndex();
+                    if (index >= nextIndex) {
+                        nextIndex = index + 1;
+                        deliver(result);
+                    }
+                }
+                // An empty response means etcd timed out the long poll, so just ask again
+                arm();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof EtcdClientException && isCleared((EtcdClientException) t)) {
+                    resync(((EtcdClientException) t).getEtcdResult().getIndex());
+                } else {
+                    retry(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the key for the index to start watching after. A missing key is fine, etcd's error carries the index too.
+     */
+    private void readIndex() {
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.getWithIndexAsync(key, EtcdReadOptions.LOCAL);
+        } catch (EtcdClientException e) {
+            retry(e);
+            return;
+        }
+        pending = future;
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult result) {
+                failures = 0;
+                nextIndex = result == null ? 1L : result.getIndex() + 1L;
+                arm();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retry(t);
+            }
+        });
+    }
+
+    private void resync(final int clearedAt) {
+        if (closed) {
+            return;
+        }
+        LOGGER.debug("Watch on {} can no longer continue from index {}, reading it again", key, nextIndex);
+        ListenableFuture<EtcdResult> future;
+        try {
+            future = client.getAsync(key, recursive);
+        } catch (EtcdClientException e) {
+            retry(e);
+            return;
+        }
+        pending = future;
+        Futures.addCallback(future, new FutureCallback<EtcdResult>() {
+            @Override
+            public void onSuccess(EtcdResult snapshot) {
+                failures = 0;
+                long index = snapshot != null && snapshot.getIndex() > 0 ? snapshot.getIndex() : clearedAt;
+                nextIndex = index + 1;
+                if (!closed) {
+                    try {
+                        listener.onResync(snapshot);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Watch listener on {} failed to resync", key, e);
+                    }
+                }
+                arm();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retry(t);
+            }
+        });
+    }
+
+    private void deliver(EtcdResult event) {
+        if (closed) {
+            return;
+        }
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            LOGGER.error("Watch listener on {} failed to handle an event", key, e);
+        }
+    }
+
+    private void retry(Throwable t) {
+        if (closed) {
+            return;
+        }
+        try {
+            listener.onError(t);
+        } catch (RuntimeException e) {
+            LOGGER.error("Watch listener on {} failed to handle an error", key, e);
+        }
+
+        long delay = Math.min(MIN_RETRY_DELAY_MILLIS << Math.min(failures, 16), MAX_RETRY_DELAY_MILLIS);
+        failures++;
+        LOGGER.debug("Watch on {} failed, retrying in {}ms", key, delay, t);
+        try {
+            client.getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    arm();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Client closed, stopping watch on {}", key);
+        }
+    }
+
+    private static boolean isCleared(EtcdClientException e) {
+        return e.getEtcdResult() != null && (e.isEtcdError(EtcdStatusCode.EcodeEventIndexCleared.value())
+                || e.isEtcdError(EtcdStatusCode.EcodeWatcherCleared.value()));
+    }
+}
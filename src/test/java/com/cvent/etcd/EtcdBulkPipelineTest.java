@@ -0,0 +1,119 @@
+package com.cvent.etcd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class EtcdBulkPipelineTest {
+
+    @Test
+    public void boundsRequestsInFlight() throws Exception {
+        final List<SettableFuture<EtcdResult>> pending = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add("/key" + i);
+        }
+
+        ListenableFuture<EtcdBulkResult> future = new EtcdBulkPipeline<>(keys, 3, new Operation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) {
+                SettableFuture<EtcdResult> result = SettableFuture.create();
+                pending.add(result);
+                return result;
+            }
+        }).run();
+
+        Assert.assertEquals(3, pending.size());
+        pending.get(0).set(new EtcdResult());
+        Assert.assertEquals(4, pending.size());
+        pending.get(1).setException(new EtcdClientException("boom", 500));
+        Assert.assertEquals(5, pending.size());
+
+        for (int i = 2; i < 10; i++) {
+            pending.get(i).set(new EtcdResult());
+        }
+
+        EtcdBulkResult result = future.get();
+        Assert.assertEquals(10, pending.size());
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertEquals(9, result.getResults().size());
+        Assert.assertTrue(result.getError("/key1").isHttpError(500));
+    }
+
+    @Test
+    public void cancellingStopsTheRest() throws Exception {
+        final List<SettableFuture<EtcdResult>> pending = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add("/key" + i);
+        }
+
+        ListenableFuture<EtcdBulkResult> future = new EtcdBulkPipeline<>(keys, 3, new Operation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) {
+                SettableFuture<EtcdResult> result = SettableFuture.create();
+                pending.add(result);
+                return result;
+            }
+        }).run();
+
+        pending.get(0).set(new EtcdResult());
+        Assert.assertEquals(4, pending.size());
+        Assert.assertTrue(future.cancel(false));
+
+        // The operations in flight are cancelled, and their completion does not start any more
+        for (int i = 1; i < 4; i++) {
+            Assert.assertTrue(pending.get(i).isCancelled());
+        }
+        Assert.assertEquals(4, pending.size());
+    }
+
+    @Test
+    public void immediateCompletionsDoNotRecurse() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            keys.add("/key" + i);
+        }
+
+        EtcdBulkResult result = new EtcdBulkPipeline<>(keys, 8, new Operation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) {
+                started.incrementAndGet();
+                return Futures.immediateFuture(new EtcdResult());
+            }
+        }).run().get();
+
+        Assert.assertEquals(100000, started.get());
+        Assert.assertEquals(100000, result.getResults().size());
+    }
+
+    @Test
+    public void emptyInputCompletes() throws Exception {
+        EtcdBulkResult result = new EtcdBulkPipeline<>(Lists.<String>newArrayList(), 8, new Operation() {
+            @Override
+            public ListenableFuture<EtcdResult> start(String key) {
+                throw new AssertionError();
+            }
+        }).run().get();
+
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertTrue(result.getResults().isEmpty());
+    }
+
+    private abstract static class Operation implements EtcdBulkPipeline.Operation<String> {
+
+        @Override
+        public String key(String key) {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.cvent.etcd;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class EtcdClientBuilderTest {
+
+    EtcdTestServer server;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.server.close();
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        final EtcdClientBuilder builder = new EtcdClientBuilder();
+        List<Runnable> invalid = new ArrayList<>();
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.maxConnectionsPerRoute(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.maxConnectionsTotal(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.ioThreadCount(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.connectTimeout(-1, TimeUnit.SECONDS);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.socketTimeout(-1, TimeUnit.SECONDS);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.connectionRequestTimeout(-1, TimeUnit.SECONDS);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.watchMaxConnectionsPerRoute(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.watchMaxConnectionsTotal(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.watchIoThreadCount(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.maxBulkInFlight(0);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.hedgeReads(100, 0, TimeUnit.MILLISECONDS);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.hedgeReads(95, -1, TimeUnit.MILLISECONDS);
+            }
+        });
+        invalid.add(new Runnable() {
+            @Override
+            public void run() {
+                builder.decodeThreadCount(0);
+            }
+        });
+        for (int i = 0; i < invalid.size(); i++) {
+            try {
+                invalid.get(i).run();
+                Assert.fail("Setting " + i + " was accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        try {
+            builder.metrics(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            // Expected
+        }
+        try {
+            builder.retryPolicy(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            // Expected
+        }
+        try {
+            builder.decodeExecutor(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void connectionLimitsReachTheClient() throws Exception {
+        // Requests are counted as they arrive, before the latency, so the count shows how many are sent at once
+        this.server.setLatencyMillis(2000);
+        try (EtcdClient client = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(4)
+                .build()) {
+            List<ListenableFuture<EtcdResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(client.setAsync("/key" + i, "value"));
+            }
+            // With the default of 2 connections only two would get there before the first ones are answered
+            long deadline = System.currentTimeMillis() + 1500;
+            while (this.server.getRequestCount() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(4, this.server.getRequestCount());
+            for (ListenableFuture<EtcdResult> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    @Test
+    public void blockingClientResendsOnConnectionsClosedWhileIdle() throws Exception {
+        try (EtcdStubServer stub = new EtcdStubServer("stub");
+                EtcdClient client = new EtcdClientBuilder().member(stub.getUri()).blockingTransport(true).build()) {
+            client.set("/key", "1");
+            stub.dropConnections();
+            // The write goes out on the pooled connection the server closed, which has to be noticed and retried
+            Assert.assertEquals("stub", client.set("/key", "1").getNode().getValue());
+            Assert.assertEquals(2, stub.getRequestCount());
+        }
+    }
+
+    @Test
+    public void timeoutsReachTheClient() throws Exception {
+        try (EtcdClient client = new EtcdClientBuilder().member(server.getUri())
+                .socketTimeout(100, TimeUnit.MILLISECONDS).retryPolicy(EtcdRetryPolicy.NONE).build()) {
+            // The I/O reactor only checks for timeouts once a second, so the answer has to take well over that
+            this.server.setLatencyMillis(3000);
+            try {
+                client.get("/key");
+                Assert.fail();
+            } catch (EtcdClientException e) {
+                Assert.assertTrue(Iterables.any(Throwables.getCausalChain(e),
+                        Predicates.instanceOf(SocketTimeoutException.class)));
+            }
+        }
+    }
+
+    @Test
+    public void watchesHaveTheirOwnPool() throws Exception {
+        try (EtcdClient shared = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(1).build();
+                EtcdClient separate = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(1)
+                        .separateWatchPool(true).build()) {
+            ListenableFuture<EtcdResult> sharedWatch = shared.watch("/watched");
+            ListenableFuture<EtcdResult> separateWatch = separate.watch("/watched");
+            Thread.sleep(200);
+
+            // The long poll holds the only connection of the shared pool
+            ListenableFuture<EtcdResult> blocked = shared.getAsync("/key");
+            try {
+                blocked.get(300, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (TimeoutException e) {
+                // Expected
+            }
+            Assert.assertNull(separate.getAsync("/key").get(5, TimeUnit.SECONDS));
+
+            blocked.cancel(true);
+            sharedWatch.cancel(true);
+            separateWatch.cancel(true);
+        }
+    }
+
+    @Test
+    public void decodeExecutorParsesResponses() throws Exception {
+        final AtomicInteger tasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                command.run();
+            }
+        };
+        try (EtcdClient client = new EtcdClientBuilder().member(server.getUri()).decodeExecutor(executor).build()) {
+            client.setAsync("/key", "value").get();
+            Assert.assertEquals("value", client.getAsync("/key").get().getNode().getValue());
+            Assert.assertTrue(tasks.get() >= 2);
+        }
+    }
+}
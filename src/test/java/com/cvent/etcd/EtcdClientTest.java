@@ -0,0 +1,253 @@
+package com.cvent.etcd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Client behaviour that can be checked against a local stub rather than a real etcd
+ */
+public class EtcdClientTest {
+
+    EtcdStubServer server;
+    EtcdClientStats stats;
+    EtcdClient client;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdStubServer("stub");
+        this.stats = new EtcdClientStats();
+        this.client = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(16).metrics(stats)
+                .build();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void concurrentIdenticalReadsShareOneRequest() throws Exception {
+        this.server.setLatencyMillis(200);
+
+        try (EtcdClient coalescing = new EtcdClientBuilder().member(server.getUri()).coalesceReads(true).build()) {
+            List<ListenableFuture<EtcdResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(coalescing.getAsync("/popular"));
+            }
+            futures.get(0).cancel(true);
+
+            for (ListenableFuture<EtcdResult> future : futures.subList(1, futures.size())) {
+                Assert.assertEquals("stub", future.get().getNode().getValue());
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+
+            // Once the shared read is done the next one goes to etcd again
+            coalescing.get("/popular");
+            Assert.assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void concurrentBlockingReadsShareOneRequest() throws Exception {
+        this.server.setLatencyMillis(500);
+
+        ExecutorService callers = Executors.newFixedThreadPool(20);
+        try (final EtcdClient coalescing = new EtcdClientBuilder().member(server.getUri()).coalesceReads(true)
+                .build()) {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<EtcdResult>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(callers.submit(new Callable<EtcdResult>() {
+                    @Override
+                    public EtcdResult call() throws Exception {
+                        start.await();
+                        return coalescing.get("/popular");
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<EtcdResult> result : results) {
+                Assert.assertEquals("stub", result.get().getNode().getValue());
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void readsAreNotSharedUnlessAskedFor() throws Exception {
+        this.server.setLatencyMillis(200);
+
+        ListenableFuture<EtcdResult> first = this.client.getAsync("/popular");
+        ListenableFuture<EtcdResult> second = this.client.getAsync("/popular");
+        Assert.assertNotSame(first.get(), second.get());
+        Assert.assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void writesOnlyStopSharingReadsThatCanSeeThem() throws Exception {
+        this.server.setLatencyMillis(1000);
+
+        try (EtcdClient coalescing = new EtcdClientBuilder().member(server.getUri()).maxConnectionsPerRoute(16)
+                .coalesceReads(true).build()) {
+            ListenableFuture<EtcdResult> write = coalescing.setAsync("/dir/a", "value");
+            // Sent while the write is on its way, and still in flight when it completes
+            Thread.sleep(300);
+            List<ListenableFuture<EtcdResult>> before = new ArrayList<>();
+            for (String key : new String[]{"/dir/a", "/dir", "/", "/dir/a/b", "/dir/ab", "/other"}) {
+                before.add(coalescing.getAsync(key));
+            }
+            write.get();
+
+            int requests = server.getRequestCount();
+            List<ListenableFuture<EtcdResult>> after = new ArrayList<>();
+            for (String key : new String[]{"/dir/a", "/dir", "/", "/dir/a/b", "/dir/ab", "/other"}) {
+                after.add(coalescing.getAsync(key));
+            }
+            for (int i = 0; i < before.size(); i++) {
+                Assert.assertEquals(i >= 4, before.get(i).get() == after.get(i).get());
+            }
+            Assert.assertEquals(requests + 4, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void recordsPerOperationStats() throws Exception {
+        this.client.get("/a");
+        this.client.get("/b");
+
+        EtcdClientStats.OperationStats get = stats.get(EtcdOperation.GET);
+        Assert.assertEquals(2, get.getRequests());
+        Assert.assertEquals(0, get.getInFlight());
+        Assert.assertEquals(2, get.getLatency().getCount());
+        Assert.assertEquals(2, get.getParseTime().getCount());
+        Assert.assertTrue(get.getBytesIn() > 0);
+        Assert.assertEquals(0, stats.get(EtcdOperation.SET).getRequests());
+    }
+
+    @Test
+    public void traversalsAreRecordedHoweverTheyEnd() throws Exception {
+        this.server.setLargeListingSize(100);
+        try {
+            this.client.traverse("/large", new EtcdNodeVisitor() {
+                @Override
+                public boolean visit(EtcdNode node) {
+                    throw new IllegalStateException("visitor failed");
+                }
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("visitor failed", e.getMessage());
+        }
+
+        EtcdClientStats.OperationStats get = stats.get(EtcdOperation.GET);
+        Assert.assertEquals(1, get.getRequests());
+        Assert.assertEquals(0, get.getInFlight());
+        Assert.assertEquals(1, get.getLatency().getCount());
+    }
+
+    @Test
+    public void gzippedResponsesAreInflatedAsTheyAreParsed() throws Exception {
+        this.server.setLargeListingSize(5000);
+        EtcdClientStats compressedStats = new EtcdClientStats();
+        try (EtcdClient compressed = new EtcdClientBuilder().member(server.getUri()).metrics(compressedStats)
+                .compressResponses(true).build();
+                EtcdClient blocking = new EtcdClientBuilder().member(server.getUri()).blockingTransport(true)
+                        .compressResponses(true).build()) {
+            List<EtcdNode> plain = this.client.get("/large", true).getNode().getNodes();
+            List<EtcdNode> inflated = compressed.get("/large", true).getNode().getNodes();
+            Assert.assertEquals(5000, inflated.size());
+            Assert.assertEquals(plain.get(4999).getValue(), inflated.get(4999).getValue());
+            // The listing is the same few bytes over and over, and the stats count what came over the wire
+            Assert.assertTrue(compressedStats.get(EtcdOperation.GET).getBytesIn() * 5
+                    < stats.get(EtcdOperation.GET).getBytesIn());
+
+            Assert.assertEquals(5000, blocking.get("/large", true).getNode().getNodes().size());
+            Assert.assertEquals("stub", compressed.get("/small").getNode().getValue());
+            final List<EtcdNode> visited = new ArrayList<>();
+            compressed.traverse("/large", new EtcdNodeVisitor() {
+                @Override
+                public boolean visit(EtcdNode node) {
+                    visited.add(node);
+                    return true;
+                }
+            });
+            Assert.assertEquals(5001, visited.size());
+        }
+    }
+
+    @Test
+    public void syncCallsCanBeMadeFromCallbacks() throws Exception {
+        final SettableFuture<List<Object>> made = SettableFuture.create();
+        // The watches of the listener and the cache would take up both connections of the default pool
+        try (EtcdTestServer etcd = new EtcdTestServer();
+                final EtcdClient client = new EtcdClientBuilder().member(etcd.getUri()).decodeThreadCount(1)
+                        .maxConnectionsPerRoute(8).build()) {
+            long index = client.set("/other", "1").getIndex();
+            final EtcdReadCache cache = new EtcdReadCache(client, "/", 100);
+            // The listener runs on the only decode thread, so its calls must be parsed without it
+            EtcdWatcher watcher = client.watch("/key", index + 1, false, new EtcdWatchListener() {
+                @Override
+                public void onEvent(EtcdResult event) {
+                    try {
+                        List<Object> results = new ArrayList<>();
+                        results.add(client.get("/other").getNode().getValue());
+                        results.add(client.update("/other", new Function<String, String>() {
+                            @Override
+                            public String apply(String value) {
+                                return value + "2";
+                            }
+                        }).getNode().getValue());
+                        results.add(client.getAll(Arrays.asList("/key", "/other")).getResults().size());
+                        results.add(cache.get("/other").getNode().getValue());
+
+                        EtcdLock lock = new EtcdLock(client, "/lock", "first", 60);
+                        lock.acquire();
+                        results.add(lock.isHeld());
+                        lock.release();
+                        EtcdLock next = new EtcdLock(client, "/lock", "second", 60);
+                        results.add(next.tryAcquire(5, TimeUnit.SECONDS));
+                        next.release();
+                        made.set(results);
+                    } catch (EtcdClientException | InterruptedException | RuntimeException e) {
+                        made.setException(e);
+                    }
+                }
+
+                @Override
+                public void onResync(EtcdResult snapshot) {
+                }
+
+                @Override
+                public void onError(Throwable cause) {
+                }
+            });
+            try {
+                client.set("/key", "value");
+                Assert.assertEquals(Arrays.<Object>asList("1", "12", 2, "12", true, true),
+                        made.get(10, TimeUnit.SECONDS));
+            } finally {
+                watcher.close();
+                cache.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.cvent.etcd;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class EtcdClusterTest {
+
+    EtcdStubServer a;
+    EtcdStubServer b;
+    EtcdStubServer c;
+    EtcdClient client;
+
+    @Before
+    public void initialize() throws Exception {
+        this.a = new EtcdStubServer("a");
+        this.b = new EtcdStubServer("b");
+        this.c = new EtcdStubServer("c");
+        this.client = new EtcdClient(Arrays.asList(a.getUri(), b.getUri(), c.getUri()));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.client.close();
+        this.a.close();
+        this.b.close();
+        this.c.close();
+    }
+
+    @Test
+    public void readsAreSpreadAcrossMembers() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            Assert.assertNotNull(this.client.get("/key"));
+        }
+
+        Assert.assertEquals(10, a.getRequestCount());
+        Assert.assertEquals(10, b.getRequestCount());
+        Assert.assertEquals(10, c.getRequestCount());
+    }
+
+    @Test
+    public void readsFailOverWhenMemberIsDown() throws Exception {
+        this.b.close();
+
+        for (int i = 0; i < 30; i++) {
+            EtcdResult result = this.client.get("/key");
+            Assert.assertNotEquals("b", result.getNode().getValue());
+        }
+
+        // b is marked down after the first failure, so the other members pick up the load
+        Assert.assertEquals(30, a.getRequestCount() + c.getRequestCount());
+    }
+
+    @Test
+    public void failedMemberIsProbedBackInWithBackoff() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        EtcdCluster cluster = new EtcdCluster(Arrays.asList(URI.create("http://a:4001"), URI.create("http://b:4001")),
+                ticker);
+        EtcdCluster.Member first = cluster.selectForWrite();
+        Assert.assertEquals(URI.create("http://a:4001/"), first.getUri());
+
+        cluster.markDown(first);
+        Assert.assertNotSame(first, cluster.selectForWrite());
+        Assert.assertNotSame(first, cluster.selectForRead());
+        Assert.assertNotSame(first, cluster.selectForRead());
+
+        // Once the backoff expires a single request probes the member
+        now.addAndGet(EtcdCluster.MIN_BACKOFF_NANOS);
+        Assert.assertSame(first, cluster.selectForWrite());
+        Assert.assertNotSame(first, cluster.selectForWrite());
+
+        // A failed probe doubles the backoff
+        cluster.markDown(first);
+        now.addAndGet(EtcdCluster.MIN_BACKOFF_NANOS);
+        Assert.assertNotSame(first, cluster.selectForWrite());
+        now.addAndGet(EtcdCluster.MIN_BACKOFF_NANOS);
+        Assert.assertSame(first, cluster.selectForWrite());
+
+        cluster.markUp(first);
+        Assert.assertTrue(first.isHealthy());
+        Assert.assertSame(first, cluster.selectForWrite());
+        Assert.assertSame(first, cluster.selectForWrite());
+    }
+
+    @Test
+    public void slowReadsAreHedgedOnAnotherMember() throws Exception {
+        try (EtcdClient hedging = new EtcdClientBuilder().member(a.getUri()).member(b.getUri()).coalesceReads(false)
+                .hedgeReads(90, 5, TimeUnit.MILLISECONDS).build()) {
+            for (int i = 0; i < 2 * EtcdHedger.MIN_SAMPLES; i++) {
+                hedging.get("/key");
+            }
+
+            this.a.setLatencyMillis(1000);
+            for (int i = 0; i < 4; i++) {
+                long start = System.nanoTime();
+                Assert.assertEquals("b", hedging.get("/key").getNode().getValue());
+                Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            }
+        }
+    }
+
+    @Test
+    public void failedReadsAreRetriedWithBackoff() throws Exception {
+        try (EtcdTestServer server = new EtcdTestServer();
+                EtcdClient retrying = new EtcdClient(server.getUri());
+                EtcdClient failing = new EtcdClientBuilder().member(server.getUri())
+                        .retryPolicy(EtcdRetryPolicy.NONE).build()) {
+            server.dropNextRequests(3);
+            Assert.assertNull(retrying.get("/missing"));
+
+            server.dropNextRequests(1);
+            try {
+                failing.get("/missing");
+                Assert.fail();
+            } catch (EtcdClientException e) {
+                // Expected, nothing retries the dropped request
+            }
+        }
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        EtcdRetryPolicy policy = new EtcdBackoffRetryPolicy(5, 100, 250, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(0, policy.retryDelayMillis(1, null));
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.retryDelayMillis(2, null);
+            Assert.assertTrue(delay >= 0 && delay <= 100);
+            delay = policy.retryDelayMillis(5, null);
+            Assert.assertTrue(delay >= 0 && delay <= 250);
+        }
+        Assert.assertTrue(policy.retryDelayMillis(6, null) < 0);
+    }
+
+    @Test
+    public void writesGoToTheLeaderAndReadsToFollowers() throws Exception {
+        try (EtcdTestServer first = new EtcdTestServer();
+                EtcdTestServer leader = new EtcdTestServer();
+                EtcdTestServer third = new EtcdTestServer();
+                EtcdClient cluster = new EtcdClientBuilder().member(first.getUri()).member(leader.getUri())
+                        .member(third.getUri()).coalesceReads(false).build()) {
+            first.follow(leader);
+            third.follow(leader);
+
+            // The first write is redirected by the follower it lands on, and sets off looking for the leader
+            Assert.assertEquals("1", cluster.set("/key", "1").getNode().getValue());
+            Thread.sleep(200);
+
+            int requests = leader.getRequestCount();
+            for (int i = 0; i < 10; i++) {
+                cluster.set("/key", Integer.toString(i));
+                cluster.get("/key");
+            }
+            Assert.assertEquals(requests + 10, leader.getRequestCount());
+            Assert.assertEquals(11, leader.getIndex());
+
+            // After an election the old leader redirects writes to the new one
+            leader.follow(third);
+            first.follow(third);
+            third.follow(null);
+            cluster.set("/key", "moved");
+            Assert.assertEquals(1, third.getIndex());
+        }
+    }
+
+    @Test
+    public void quorumReadsGoToTheLeader() throws Exception {
+        try (EtcdTestServer first = new EtcdTestServer();
+                EtcdTestServer leader = new EtcdTestServer();
+                EtcdTestServer third = new EtcdTestServer();
+                EtcdClient cluster = new EtcdClientBuilder().member(first.getUri()).member(leader.getUri())
+                        .member(third.getUri()).build()) {
+            first.follow(leader);
+            third.follow(leader);
+            cluster.set("/key", "written");
+            Thread.sleep(200);
+
+            // The test servers do not replicate, so only the leader has the key
+            int requests = leader.getRequestCount();
+            for (int i = 0; i < 10; i++) {
+                Assert.assertNull(cluster.get("/key"));
+                Assert.assertEquals("written", cluster.get("/key", EtcdReadOptions.QUORUM).getNode().getValue());
+                Assert.assertEquals(1, cluster.listDirectory("/", EtcdReadOptions.QUORUM).size());
+            }
+            Assert.assertEquals(requests + 20, leader.getRequestCount());
+        }
+    }
+
+    @Test
+    public void blockingTransportFailsOverAndRetries() throws Exception {
+        try (EtcdClient blocking = new EtcdClientBuilder().member(a.getUri()).member(b.getUri()).member(c.getUri())
+                .blockingTransport(true).build()) {
+            this.b.close();
+            for (int i = 0; i < 30; i++) {
+                Assert.assertNotEquals("b", blocking.get("/key").getNode().getValue());
+            }
+            Assert.assertEquals(30, a.getRequestCount() + c.getRequestCount());
+        }
+
+        try (EtcdTestServer server = new EtcdTestServer();
+                EtcdClient blocking = new EtcdClientBuilder().member(server.getUri()).blockingTransport(true)
+                        .build()) {
+            server.dropNextRequests(3);
+            Assert.assertNull(blocking.get("/missing"));
+        }
+    }
+
+    @Test
+    public void traversalsFailOverAndRetry() throws Exception {
+        final List<String> visited = new ArrayList<>();
+        EtcdNodeVisitor visitor = new EtcdNodeVisitor() {
+            @Override
+            public boolean visit(EtcdNode node) {
+                visited.add(node.getValue());
+                return true;
+            }
+        };
+        this.b.close();
+        for (int i = 0; i < 30; i++) {
+            this.client.traverse("/key", visitor);
+        }
+        Assert.assertEquals(30, visited.size());
+        Assert.assertFalse(visited.contains("b"));
+
+        try (EtcdTestServer server = new EtcdTestServer();
+                EtcdClient single = new EtcdClient(server.getUri())) {
+            single.set("/dir/a", "1");
+            single.set("/dir/b", "2");
+            server.dropNextRequests(3);
+            visited.clear();
+            Assert.assertNotNull(single.traverse("/dir", visitor));
+            Assert.assertEquals(Arrays.asList("1", "2", null), visited);
+        }
+    }
+
+    @Test
+    public void blockingTransportRunsOnTheCallingThread() throws Exception {
+        final List<Thread> parsedOn = new CopyOnWriteArrayList<>();
+        EtcdClientStats stats = new EtcdClientStats() {
+            @Override
+            public void responseParsed(EtcdOperation operation, long bytesIn, long parseNanos) {
+                parsedOn.add(Thread.currentThread());
+                super.responseParsed(operation, bytesIn, parseNanos);
+            }
+        };
+        try (EtcdTestServer first = new EtcdTestServer();
+                EtcdTestServer leader = new EtcdTestServer();
+                EtcdClient blocking = new EtcdClientBuilder().member(first.getUri()).member(leader.getUri())
+                        .metrics(stats).blockingTransport(true).build()) {
+            first.follow(leader);
+
+            // Writes follow the redirect to the leader, and reads go to either member
+            Assert.assertEquals("1", blocking.set("/key", "1").getNode().getValue());
+            Assert.assertEquals(1, leader.getIndex());
+            Assert.assertEquals("2", blocking.cas("/key", "1", "2").getNode().getValue());
+            Assert.assertEquals("2", blocking.get("/key", EtcdReadOptions.QUORUM).getNode().getValue());
+            Assert.assertTrue(blocking.create("/key", "3", null).isError());
+            Assert.assertNull(blocking.replace("/missing", "4", null));
+            Assert.assertEquals("2", blocking.delete("/key").getPrevNode().getValue());
+
+            Assert.assertEquals(Collections.nCopies(parsedOn.size(), Thread.currentThread()), parsedOn);
+            Assert.assertEquals(0, stats.get(EtcdOperation.SET).getFailures());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cvent.etcd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class EtcdFormTest {
+
+    @Test
+    public void encodesLikeUrlEncodedFormEntity() throws Exception {
+        String[] values = {"", "plain", "a b&c=d+e%f", "caf\u00e9 \u20ac \ud83d\ude00", "~!@#$^()[]{}|\\/<>,;:'\"",
+            null};
+        for (String value : values) {
+            String expected = EntityUtils.toString(new UrlEncodedFormEntity(
+                    Arrays.asList(new BasicNameValuePair("value", value), new BasicNameValuePair("ttl", "5")),
+                    Charsets.UTF_8));
+
+            EtcdForm form = new EtcdForm(1).add("value", value).add("ttl", "5");
+            Assert.assertEquals(expected, EntityUtils.toString(form.toEntity()));
+
+            if (value != null) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+                buffer.put(value.getBytes(Charsets.UTF_8)).flip();
+                EtcdForm binary = new EtcdForm(1).add("value", buffer).add("ttl", "5");
+                Assert.assertEquals(expected, EntityUtils.toString(binary.toEntity()));
+                Assert.assertEquals(0, buffer.position());
+            }
+        }
+    }
+}
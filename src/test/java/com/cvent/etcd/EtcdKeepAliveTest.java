@@ -0,0 +1,102 @@
+package com.cvent.etcd;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EtcdKeepAliveTest {
+
+    EtcdTestServer server;
+    EtcdClient client;
+    RecordingListener listener;
+    EtcdKeepAlive keepAlive;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer();
+        this.client = new EtcdClient(server.getUri());
+        this.listener = new RecordingListener();
+        this.keepAlive = new EtcdKeepAlive(client, listener);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.keepAlive.close();
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void keepsKeysAliveWithoutRewritingThem() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            this.keepAlive.register("/services/web/" + i, "instance" + i, 1).get();
+        }
+
+        Thread.sleep(2500);
+        for (int i = 0; i < 50; i++) {
+            EtcdResult result = this.client.get("/services/web/" + i);
+            Assert.assertNotNull(result);
+            Assert.assertEquals("instance" + i, result.getNode().getValue());
+            Assert.assertEquals(i + 1, result.getNode().getCreatedIndex());
+        }
+        Assert.assertTrue(this.listener.errors.isEmpty());
+        Assert.assertTrue(this.listener.reregistered.isEmpty());
+    }
+
+    @Test
+    public void reregistersDeletedKeys() throws Exception {
+        this.keepAlive.register("/services/web/a", "a", 1).get();
+        this.client.delete("/services/web/a");
+
+        Assert.assertEquals("/services/web/a", this.listener.reregistered.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("a", this.client.get("/services/web/a").getNode().getValue());
+    }
+
+    @Test
+    public void reportsLateRefreshes() throws Exception {
+        // Refreshes are sent 40-60% of the way through the TTL, so each one lands with less than 75% of it to spare
+        try (EtcdKeepAlive strict = new EtcdKeepAlive(client, listener, 0.75)) {
+            strict.register("/services/web/a", "a", 1).get();
+
+            Assert.assertEquals("/services/web/a", this.listener.late.poll(5, TimeUnit.SECONDS));
+            Assert.assertTrue(this.listener.reregistered.isEmpty());
+        }
+    }
+
+    @Test
+    public void unregisteredKeysExpire() throws Exception {
+        this.keepAlive.register("/services/web/a", "a", 1).get();
+        Assert.assertTrue(this.keepAlive.unregister("/services/web/a"));
+        Assert.assertFalse(this.keepAlive.unregister("/services/web/a"));
+
+        Thread.sleep(1500);
+        Assert.assertNull(this.client.get("/services/web/a"));
+    }
+
+    static class RecordingListener implements EtcdKeepAliveListener {
+
+        final BlockingQueue<String> late = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> reregistered = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onLate(String key, long lateMillis) {
+            late.add(key);
+        }
+
+        @Override
+        public void onReregistered(String key) {
+            reregistered.add(key);
+        }
+
+        @Override
+        public void onError(String key, Throwable cause) {
+            errors.add(cause);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.cvent.etcd;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+
+public class EtcdKeyUrisTest {
+
+    @Test
+    public void matchesSegmentWiseEscaping() throws Exception {
+        String[] keys = {"", "/", "/a", "a/b", "/a/b/", "/a//b", "/services/web/instance-01", "/a b/c d",
+            "/dir with space/sub/key", "/unicode/\u00e9t\u00e9", "/q?x=1&y=2", "/plus+sign", "/%41", "/a/b c/d"};
+        for (String key : keys) {
+            for (String suffix : new String[]{"", "?recursive=true", "/"}) {
+                Assert.assertEquals(key, expected("v2/keys", key, suffix), EtcdKeyUris.build("v2/keys", key, suffix));
+                // Twice, so the cached directory is used as well
+                Assert.assertEquals(key, expected("v2/keys", key, suffix), EtcdKeyUris.build("v2/keys", key, suffix));
+            }
+        }
+    }
+
+    /**
+     * The original, allocation heavy way of building key URIs
+     */
+    private static URI expected(String prefix, String key, String suffix) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(prefix);
+        if (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+        for (String token : Splitter.on('/').split(key)) {
+            sb.append("/");
+            sb.append(URLEncoder.encode(token, "UTF-8"));
+        }
+        sb.append(suffix);
+        return URI.create(sb.toString());
+    }
+}
@@ -0,0 +1,44 @@
+package com.cvent.etcd;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EtcdLatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long value : Arrays.asList(0L, 1L, 31L, 32L, 33L, 1000L, 123456789L, Long.MAX_VALUE)) {
+            int bucket = EtcdLatencyHistogram.bucket(value);
+            Assert.assertTrue(EtcdLatencyHistogram.highestEquivalentValue(bucket) >= value);
+            if (bucket > 0) {
+                Assert.assertTrue(EtcdLatencyHistogram.highestEquivalentValue(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinPrecision() {
+        EtcdLatencyHistogram histogram = new EtcdLatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10000000, histogram.getMax());
+        Assert.assertEquals(5000500, histogram.getMean(), 0.001);
+        assertClose(5000000, histogram.getValueAtPercentile(50));
+        assertClose(9900000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(10000000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 32);
+    }
+}
@@ -0,0 +1,196 @@
+package com.cvent.etcd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class EtcdLockTest {
+
+    EtcdTestServer server;
+    EtcdClient client;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer();
+        // Every waiting contender holds a watch, so give them a pool of their own
+        this.client = new EtcdClientBuilder().member(server.getUri()).separateWatchPool(true)
+                .watchMaxConnectionsPerRoute(16).build();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void lockIsHandedOverInQueueOrder() throws Exception {
+        List<EtcdLock> locks = new ArrayList<>();
+        List<ListenableFuture<EtcdLock>> acquired = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            EtcdLock lock = new EtcdLock(client, "/locks/resource", "owner" + i, 10);
+            locks.add(lock);
+            acquired.add(lock.acquireAsync());
+            waitForKey(lock);
+        }
+
+        acquired.get(0).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(locks.get(i).isHeld());
+            for (int j = i + 1; j < 5; j++) {
+                Assert.assertFalse(acquired.get(j).isDone());
+            }
+
+            locks.get(i).release();
+            Assert.assertFalse(locks.get(i).isHeld());
+            if (i + 1 < 5) {
+                acquired.get(i + 1).get(5, TimeUnit.SECONDS);
+            }
+        }
+        Assert.assertEquals(0, contenders());
+    }
+
+    @Test
+    public void tryAcquireGivesUpItsPlace() throws Exception {
+        EtcdLock holder = new EtcdLock(client, "/locks/resource", "holder", 10);
+        holder.acquire();
+
+        EtcdLock impatient = new EtcdLock(client, "/locks/resource", "impatient", 10);
+        Assert.assertFalse(impatient.tryAcquire(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, contenders());
+        holder.release();
+    }
+
+    @Test
+    public void keysAreKeptAliveWhileTheLockIsHeld() throws Exception {
+        EtcdLock holder = new EtcdLock(client, "/locks/resource", "holder", 1);
+        holder.acquire();
+        EtcdLock next = new EtcdLock(client, "/locks/resource", "next", 1);
+        ListenableFuture<EtcdLock> acquired = next.acquireAsync();
+        waitForKey(next);
+
+        // Each key is refreshed every third of its TTL, so after four refreshes both have outlived their first TTL
+        awaitRefreshes(holder, 4);
+        awaitRefreshes(next, 4);
+        Assert.assertTrue(holder.isHeld());
+        Assert.assertFalse(holder.getLost().isDone());
+        Assert.assertFalse(acquired.isDone());
+        next.release();
+        holder.release();
+    }
+
+    @Test
+    public void lockIsLostWhenItsKeyGoesAway() throws Exception {
+        // Refreshes are far off, so only the holder's watch on its own key can notice
+        EtcdLock holder = new EtcdLock(client, "/locks/resource", "holder", 60);
+        holder.acquire();
+        EtcdLock next = new EtcdLock(client, "/locks/resource", "next", 60);
+        ListenableFuture<EtcdLock> acquired = next.acquireAsync();
+        waitForKey(next);
+
+        this.client.delete(holder.getKey());
+        acquired.get(5, TimeUnit.SECONDS);
+        holder.getLost().get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(holder.isHeld());
+        next.release();
+    }
+
+    @Test
+    public void queueIsListedThroughTheLeader() throws Exception {
+        // A follower that never catches up, whose listings never show the contenders' keys
+        try (EtcdTestServer follower = new EtcdTestServer();
+                EtcdClient cluster = new EtcdClientBuilder().member(server.getUri()).member(follower.getUri())
+                        .separateWatchPool(true).build()) {
+            follower.follow(this.server);
+            for (int i = 0; i < 4; i++) {
+                EtcdLock lock = new EtcdLock(cluster, "/locks/resource", "owner" + i, 60);
+                Assert.assertTrue(lock.tryAcquire(5, TimeUnit.SECONDS));
+                Assert.assertTrue(lock.isHeld());
+                Assert.assertFalse(lock.getLost().isDone());
+                lock.release();
+            }
+        }
+    }
+
+    @Test
+    public void electsOneLeaderAtATime() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        EtcdLeaderElection a = new EtcdLeaderElection(client, "/elections/service", "a", 10, first).start();
+        Assert.assertEquals("elected", first.events.poll(5, TimeUnit.SECONDS));
+        EtcdLeaderElection b = new EtcdLeaderElection(client, "/elections/service", "b", 10, second).start();
+        awaitContenders("/elections/service", 2);
+        Assert.assertTrue(a.isLeader());
+        Assert.assertFalse(b.isLeader());
+        Assert.assertEquals("a", a.getLeader());
+
+        a.close();
+        Assert.assertEquals("elected", second.events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("b", b.getLeader());
+        b.close();
+        Assert.assertNull(b.getLeader());
+        Assert.assertTrue(first.events.isEmpty());
+    }
+
+    private int contenders() throws EtcdClientException {
+        return contenders("/locks/resource");
+    }
+
+    private int contenders(String dir) throws EtcdClientException {
+        List<EtcdNode> nodes = this.client.listDirectory(dir);
+        return nodes == null ? 0 : nodes.size();
+    }
+
+    private void awaitContenders(String dir, int count) throws Exception {
+        for (int i = 0; i < 500 && contenders(dir) < count; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, contenders(dir));
+    }
+
+    private void awaitRefreshes(EtcdLock lock, int refreshes) throws Exception {
+        long modifiedIndex = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int seen = -1; seen < refreshes; ) {
+            EtcdResult result = this.client.get(lock.getKey());
+            Assert.assertNotNull("The key of " + lock.getKey() + " expired", result);
+            if (result.getNode().getModifiedIndex() != modifiedIndex) {
+                modifiedIndex = result.getNode().getModifiedIndex();
+                seen++;
+            }
+            Assert.assertTrue("The key was refreshed " + seen + " times", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForKey(EtcdLock lock) throws InterruptedException {
+        for (int i = 0; i < 100 && lock.getKey() == null; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertNotNull(lock.getKey());
+    }
+
+    static class RecordingListener implements EtcdElectionListener {
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onElected() {
+            events.add("elected");
+        }
+
+        @Override
+        public void onLost() {
+            events.add("lost");
+        }
+    }
+}
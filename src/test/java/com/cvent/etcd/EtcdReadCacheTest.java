@@ -0,0 +1,213 @@
+package com.cvent.etcd;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EtcdReadCacheTest {
+
+    EtcdTestServer server;
+    GatedExecutor decoder;
+    EtcdClient client;
+    EtcdClient writer;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer(5);
+        this.decoder = new GatedExecutor();
+        this.client = new EtcdClientBuilder().member(server.getUri()).decodeExecutor(decoder).build();
+        this.writer = new EtcdClient(server.getUri());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.decoder.release.countDown();
+        this.writer.close();
+        this.client.close();
+        this.decoder.pool.shutdownNow();
+        this.server.close();
+    }
+
+    @Test
+    public void servesRepeatedReadsFromMemory() throws Exception {
+        this.writer.set("/cached/a", "1");
+        try (EtcdReadCache cache = start("/cached")) {
+            Assert.assertEquals("1", cache.get("/cached/a").getNode().getValue());
+            int requests = this.server.getRequestCount();
+
+            Assert.assertEquals("1", cache.get("/cached/a").getNode().getValue());
+            Assert.assertEquals("1", cache.get("cached/a").getNode().getValue());
+            Assert.assertEquals(requests, this.server.getRequestCount());
+            Assert.assertEquals(2, cache.getHitCount());
+            Assert.assertEquals(1, cache.getMissCount());
+
+            // Missing keys and keys outside the prefix always go to etcd
+            Assert.assertNull(cache.get("/cached/missing"));
+            Assert.assertNull(cache.get("/cached/missing"));
+            Assert.assertNull(cache.get("/elsewhere"));
+            Assert.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void invalidatesChangedKeys() throws Exception {
+        this.writer.set("/cached/a", "1");
+        this.writer.set("/cached/dir/b", "2");
+        this.writer.set("/cached/dir/c", "3");
+        try (EtcdReadCache cache = start("/cached")) {
+            cache.get("/cached/a");
+            cache.get("/cached/dir/b");
+            cache.get("/cached/dir/c");
+
+            this.writer.set("/cached/a", "4");
+            awaitValue(cache, "/cached/a", "4");
+            Assert.assertEquals("2", cache.get("/cached/dir/b").getNode().getValue());
+            Assert.assertEquals(1, cache.getInvalidationCount());
+
+            // Removing a directory takes everything cached under it along
+            this.writer.deleteRecursive("/cached/dir");
+            awaitValue(cache, "/cached/dir/b", null);
+            Assert.assertNull(cache.get("/cached/dir/c"));
+            Assert.assertEquals(3, cache.getInvalidationCount());
+            Assert.assertEquals("4", cache.get("/cached/a").getNode().getValue());
+        }
+    }
+
+    @Test
+    public void doesNotCacheAReadOverANewerChange() throws Exception {
+        this.writer.set("/cached/a", "1");
+        try (EtcdReadCache cache = start("/cached")) {
+            // The read is answered, but held before it is parsed until the change it raced with has been handled
+            this.decoder.arm();
+            ListenableFuture<EtcdResult> read = cache.getAsync("/cached/a");
+            Assert.assertTrue("The read was not answered", this.decoder.held.await(5, TimeUnit.SECONDS));
+            this.writer.set("/cached/a", "2");
+            Assert.assertTrue("The change was not handled", this.decoder.completed.tryAcquire(5, TimeUnit.SECONDS));
+            this.decoder.release.countDown();
+            Assert.assertEquals("1", read.get(5, TimeUnit.SECONDS).getNode().getValue());
+
+            Assert.assertEquals("2", cache.get("/cached/a").getNode().getValue());
+            Assert.assertEquals("2", cache.get("/cached/a").getNode().getValue());
+            Assert.assertEquals(1, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void doesNotCacheAReadOlderThanTheWatch() throws Exception {
+        this.writer.set("/cached/a", "1");
+        try (EtcdReadCache cache = start("/cached")) {
+            // A member that stops applying changes right after this read, while the watch goes on without it
+            this.writer.get("/cached/a");
+            this.server.setLaggingReads(true);
+            this.writer.set("/cached/a", "2");
+            Assert.assertTrue("The change was not handled", this.decoder.completed.tryAcquire(5, TimeUnit.SECONDS));
+            Assert.assertEquals("1", cache.get("/cached/a").getNode().getValue());
+
+            this.server.setLaggingReads(false);
+            Assert.assertEquals("2", cache.get("/cached/a").getNode().getValue());
+            Assert.assertEquals(0, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void invalidatesEverythingOnResync() throws Exception {
+        this.writer.set("/cached/a", "1");
+        try (EtcdReadCache cache = start("/cached")) {
+            cache.get("/cached/a");
+
+            // Holds the watch up until more changes than the server remembers have been made
+            this.decoder.arm();
+            this.writer.set("/cached/other", "x");
+            this.writer.set("/cached/a", "2");
+            for (int i = 0; i < 10; i++) {
+                this.writer.set("/elsewhere", Integer.toString(i));
+            }
+            this.decoder.release.countDown();
+
+            awaitValue(cache, "/cached/a", "2");
+            Assert.assertTrue(cache.getInvalidationCount() >= 1);
+        }
+    }
+
+    private EtcdReadCache start(String prefix) throws InterruptedException {
+        EtcdReadCache cache = new EtcdReadCache(this.client, prefix, 100);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.isWatching()) {
+            Assert.assertTrue("The cache did not start watching", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        this.decoder.completed.drainPermits();
+        return cache;
+    }
+
+    /**
+     * Waits for the cache to see a change, which reaches it through the watch some time after the write
+     */
+    private static void awaitValue(EtcdReadCache cache, String key, String value) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            EtcdResult result = cache.get(key);
+            String current = result == null ? null : result.getNode().getValue();
+            if (value == null ? current == null : value.equals(current)) {
+                return;
+            }
+            Assert.assertTrue(key + " is still " + current, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Parses responses on a thread pool, holding up the first one after it is armed until released
+     */
+    static class GatedExecutor implements Executor {
+
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        final AtomicBoolean armed = new AtomicBoolean();
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Semaphore completed = new Semaphore(0);
+
+        void arm() {
+            this.completed.drainPermits();
+            this.armed.set(true);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            final boolean hold = this.armed.compareAndSet(true, false);
+            if (hold) {
+                this.held.countDown();
+            }
+            this.pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (hold) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    try {
+                        command.run();
+                    } finally {
+                        if (!hold) {
+                            completed.release();
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
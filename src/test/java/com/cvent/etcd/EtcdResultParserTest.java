@@ -0,0 +1,71 @@
+package com.cvent.etcd;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class EtcdResultParserTest {
+
+    @Test
+    public void parseRecursiveListing() throws Exception {
+        String json = "{\"action\":\"get\",\"node\":{\"key\":\"/dir\",\"dir\":true,\"nodes\":["
+                + "{\"key\":\"/dir/f1\",\"value\":\"f1\",\"modifiedIndex\":7,\"createdIndex\":7},"
+                + "{\"key\":\"/dir/sub\",\"dir\":true,\"nodes\":[{\"key\":\"/dir/sub/f\",\"value\":\"f\","
+                + "\"expiration\":\"2014-06-01T00:00:00Z\",\"ttl\":5,\"unknown\":{\"a\":[1,2]}}]}],"
+                + "\"modifiedIndex\":3,\"createdIndex\":3}}";
+
+        EtcdResult result = EtcdResultParser.parse(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)));
+
+        Assert.assertEquals("get", result.getAction());
+        Assert.assertFalse(result.isError());
+        Assert.assertTrue(result.getNode().isDir());
+        Assert.assertEquals(2, result.getNode().getNodes().size());
+
+        EtcdNode f1 = result.getNode().getNodes().get(0);
+        Assert.assertEquals("/dir/f1", f1.getKey());
+        Assert.assertEquals("f1", f1.getValue());
+        Assert.assertEquals(7, f1.getModifiedIndex());
+
+        EtcdNode f = result.getNode().getNodes().get(1).getNodes().get(0);
+        Assert.assertEquals("/dir/sub/f", f.getKey());
+        Assert.assertEquals(Integer.valueOf(5), f.getTtl());
+        Assert.assertEquals("2014-06-01T00:00:00Z", f.getExpiration());
+    }
+
+    @Test
+    public void parseError() throws Exception {
+        String json = "{\"errorCode\":100,\"message\":\"Key not found\",\"cause\":\"/missing\",\"index\":12}";
+
+        EtcdResult result = EtcdResultParser.parse(json);
+
+        Assert.assertTrue(result.isError());
+        Assert.assertEquals(Integer.valueOf(EtcdStatusCode.EcodeKeyNotFound.value()), result.getErrorCode());
+        Assert.assertEquals("Key not found", result.getMessage());
+        Assert.assertEquals("/missing", result.getCause());
+        Assert.assertEquals(12, result.getIndex());
+    }
+
+    @Test
+    public void parseEmpty() throws Exception {
+        Assert.assertNull(EtcdResultParser.parse(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void parseBinaryValues() throws Exception {
+        String value = "caf\u00e9 \u20ac \ud83d\ude00 \\\"quoted\\\"";
+        String json = "{\"action\":\"get\",\"node\":{\"key\":\"/k\",\"value\":\"" + value + "\"}}";
+
+        EtcdResult result = EtcdResultParser.parse(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)), true);
+
+        String expected = "caf\u00e9 \u20ac \ud83d\ude00 \"quoted\"";
+        Assert.assertArrayEquals(expected.getBytes(Charsets.UTF_8), result.getNode().getValueBytes());
+        Assert.assertEquals(expected, result.getNode().getValue());
+
+        char[] unpaired = {'a', '\ud83d', 'b', '\ude00'};
+        Assert.assertArrayEquals(new String(unpaired).getBytes(Charsets.UTF_8),
+                EtcdResultParser.utf8(unpaired, 0, unpaired.length));
+    }
+}
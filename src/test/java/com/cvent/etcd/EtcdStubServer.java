@@ -0,0 +1,152 @@
+package com.cvent.etcd;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tiny local stand-in for an etcd member. Every GET of a key returns a node whose value is the name of the server,
+ * so tests can tell which member served a request. Each response carries a new index, so a watch is answered straight
+ * away with a fresh event. Keys under /large can be made to return a big directory listing instead, see
+ * {@link #setLargeListingSize(int)}. Responses are gzipped for clients that ask for it.
+ */
+public class EtcdStubServer implements Closeable {
+
+    static {
+        // Without this the JDK server lets Nagle's algorithm hold back every response body for ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * The name of every thread handling requests, so benchmarks can leave the stub's CPU time out
+     */
+    static final String STUB_THREAD_PREFIX = "etcd-stub-";
+
+    private final String name;
+    private volatile HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true).setNameFormat(STUB_THREAD_PREFIX + "%d").build());
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile byte[] largeListing;
+
+    public EtcdStubServer(String name) throws IOException {
+        this.name = name;
+        this.server = start(0);
+    }
+
+    private HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int index = requestCount.incrementAndGet();
+                sleep(latencyMillis);
+                String key = exchange.getRequestURI().getPath().substring("/v2/keys".length());
+                byte[] body = largeListing;
+                if (body == null || !key.startsWith("/large")) {
+                    String json = "{\"action\":\"get\",\"node\":{\"key\":\"" + key + "\",\"value\":\""
+                            + EtcdStubServer.this.name + "\",\"modifiedIndex\":" + index + ",\"createdIndex\":1}}";
+                    body = json.getBytes(Charsets.UTF_8);
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (accept != null && accept.contains("gzip")) {
+                    body = gzip(body);
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().add("X-Etcd-Index", Integer.toString(index));
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        // Requests are handled concurrently, so a large response does not hold up the small ones behind it
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+
+    public URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Delays every response by the given time
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Makes keys under /large return a directory of the given number of nodes, 0 to turn it off
+     */
+    public void setLargeListingSize(int nodes) {
+        if (nodes == 0) {
+            largeListing = null;
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"action\":\"get\",\"node\":{\"key\":\"/large\",\"dir\":true,"
+                + "\"modifiedIndex\":1,\"createdIndex\":1,\"nodes\":[");
+        for (int i = 0; i < nodes; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"key\":\"/large/node").append(i).append("\",\"value\":\"")
+                    .append(name).append(i).append("\",\"modifiedIndex\":").append(i + 1)
+                    .append(",\"createdIndex\":").append(i + 1).append('}');
+        }
+        largeListing = json.append("]}}").toString().getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Closes every open connection without a word to the clients, as a server does with connections that have been
+     * idle for too long, and goes on listening on the same port
+     */
+    public void dropConnections() throws IOException {
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        server = start(port);
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
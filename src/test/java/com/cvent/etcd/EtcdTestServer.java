@@ -0,0 +1,899 @@
+package com.cvent.etcd;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An embeddable, in-memory stand-in for a single etcd 0.4 member, speaking enough of the v2 keys API for the client to
+ * be tested without a real etcd: GET/PUT/POST/DELETE of keys and directories, TTLs, prevValue/prevIndex/prevExist
+ * conditions, wait=true long polls with waitIndex and a bounded event history that answers with
+ * EcodeEventIndexCleared once an index has fallen out of it. TTL-only refreshes (refresh=true) from etcd 2.3 are
+ * supported as well. Errors are reported with the same error codes and http statuses as etcd.
+ *
+ * Latency and faults can be injected, and the server can be taken down and brought back, to test timeouts, retries
+ * and failover. A server can also be made a follower of another, to test finding the leader.
+ *
+ * @author bryan
+ */
+public class EtcdTestServer implements Closeable {
+
+    public static final int DEFAULT_HISTORY_SIZE = 1000;
+    public static final String VERSION = "etcd 0.4.6";
+
+    private static final String KEYS_PREFIX = "/v2/keys";
+    private static final long SWEEP_INTERVAL_MILLIS = 100;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    static {
+        // Without this the JDK server lets Nagle's algorithm hold back every response body for ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final int historySize;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private volatile long latencyMillis;
+    private volatile boolean down;
+    private volatile boolean laggingReads;
+    private volatile EtcdTestServer leader;
+    private final AtomicInteger dropRequests = new AtomicInteger();
+    private final AtomicInteger failRequests = new AtomicInteger();
+
+    // Guarded by this
+    private final Node root = new Node("/", null, true, 0);
+    private final Deque<Event> history = new ArrayDeque<>();
+    private final List<Watch> watches = new ArrayList<>();
+    private final Map<String, Response> lastReads = new HashMap<>();
+    private long index;
+
+    public EtcdTestServer() throws IOException {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * @param historySize how many events are kept for watches that start in the past
+     * @throws IOException
+     */
+    public EtcdTestServer(int historySize) throws IOException {
+        this.historySize = historySize;
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etcd-test-server-%d").build());
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("etcd-test-server-ttl-%d").build());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    EtcdTestServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.start();
+        this.sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EtcdTestServer.this) {
+                    expire(System.currentTimeMillis());
+                }
+            }
+        }, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * @return the current etcd index
+     */
+    public synchronized long getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of http requests received, including the ones that were failed on purpose
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the member id reported by /v2/members and /v2/stats/leader
+     */
+    public String getId() {
+        return Integer.toHexString(server.getAddress().getPort());
+    }
+
+    /**
+     * Makes this server a follower of the given one, or the leader again if null. A follower answers writes with a
+     * redirect to the leader, as etcd 0.4 does, and refuses /v2/stats/leader, which only the leader answers. Reads are
+     * still served from the follower's own keys.
+     *
+     * @param leader
+     */
+    public void follow(EtcdTestServer leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Delays every response by the given time
+     *
+     * @param latencyMillis
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * While down, every connection is closed without a response, as if the member had crashed mid request
+     *
+     * @param down
+     */
+    public void setDown(boolean down) {
+        this.down = down;
+    }
+
+    /**
+     * While lagging, plain reads get the same answer as the last time, as they would from a follower that has stopped
+     * applying changes. Quorum reads and watches are answered as usual.
+     *
+     * @param laggingReads
+     */
+    public void setLaggingReads(boolean laggingReads) {
+        this.laggingReads = laggingReads;
+    }
+
+    /**
+     * Closes the connection of the next requests without a response
+     *
+     * @param count
+     */
+    public void dropNextRequests(int count) {
+        dropRequests.set(count);
+    }
+
+    /**
+     * Fails the next requests with an EcodeRaftInternal error, as etcd does when it loses its leader
+     *
+     * @param count
+     */
+    public void failNextRequests(int count) {
+        failRequests.set(count);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        synchronized (this) {
+            for (Watch watch : watches) {
+                watch.future.cancel(false);
+            }
+            watches.clear();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        if (down || decrementIfPositive(dropRequests)) {
+            // Closing the exchange before the headers are sent drops the connection
+            return;
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if ("/version".equals(path)) {
+            send(exchange, new Response(200, VERSION, getIndex()));
+            return;
+        }
+        if ("/v2/stats/leader".equals(path)) {
+            send(exchange, statsLeader());
+            return;
+        }
+        if ("/v2/members".equals(path)) {
+            send(exchange, members());
+            return;
+        }
+        if (!path.startsWith(KEYS_PREFIX)) {
+            send(exchange, new Response(404, "404 page not found", getIndex()));
+            return;
+        }
+        if (decrementIfPositive(failRequests)) {
+            synchronized (this) {
+                send(exchange, error(300, "Raft Internal Error", ""));
+            }
+            return;
+        }
+
+        String key = normalize(path.substring(KEYS_PREFIX.length()));
+        Map<String, String> params = parseForm(exchange.getRequestURI().getRawQuery());
+        String method = exchange.getRequestMethod();
+        EtcdTestServer current = leader;
+        if (current != null && !"GET".equals(method)) {
+            String query = exchange.getRequestURI().getRawQuery();
+            exchange.getResponseHeaders().add("Location", current.getUri()
+                    + exchange.getRequestURI().getRawPath().substring(1) + (query == null ? "" : "?" + query));
+            send(exchange, new Response(307, "", getIndex()));
+            return;
+        }
+        if ("PUT".equals(method) || "POST".equals(method) || "DELETE".equals(method)) {
+            byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+            params.putAll(parseForm(new String(body, Charsets.UTF_8)));
+        }
+
+        Response response;
+        switch (method) {
+            case "GET":
+                if ("true".equals(params.get("wait"))) {
+                    response = await(key, params);
+                    if (response == null) {
+                        return;
+                    }
+                } else {
+                    response = get(key, params);
+                }
+                break;
+            case "PUT":
+                response = put(key, params);
+                break;
+            case "POST":
+                response = post(key, params);
+                break;
+            case "DELETE":
+                response = delete(key, params);
+                break;
+            default:
+                response = new Response(405, "Method Not Allowed", getIndex());
+        }
+        send(exchange, response);
+    }
+
+    private synchronized Response get(String key, Map<String, String> params) {
+        expire(System.currentTimeMillis());
+        Node node = find(key);
+        if (node == null) {
+            return error(EtcdStatusCode.EcodeKeyNotFound.value(), "Key not found", key);
+        }
+        boolean recursive = "true".equals(params.get("recursive"));
+        String read = recursive ? key + "?recursive" : key;
+        Response last = lastReads.get(read);
+        if (laggingReads && last != null && !"true".equals(params.get("quorum"))) {
+            return last;
+        }
+        Response response = new Response(200, json("get", node, recursive, null), index);
+        lastReads.put(read, response);
+        return response;
+    }
+
+    /**
+     * A long poll. Returns an event from the history straight away if there is one, otherwise blocks this request's
+     * thread until a matching event happens.
+     */
+    private Response await(String key, Map<String, String> params) throws IOException {
+        boolean recursive = "true".equals(params.get("recursive"));
+        Watch watch;
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            long since = index + 1;
+            String waitIndex = params.get("waitIndex");
+            if (waitIndex != null) {
+                try {
+                    since = Long.parseLong(waitIndex);
+                } catch (NumberFormatException e) {
+                    return error(EtcdStatusCode.EcodeIndexNaN.value(), "The given index in POST form is not a number",
+                            "Watch");
+                }
+                if (!history.isEmpty() && since < history.peekFirst().index) {
+                    return error(EtcdStatusCode.EcodeEventIndexCleared.value(),
+                            "The event in requested index is outdated and cleared",
+                            "the requested history has been cleared [" + history.peekFirst().index + "/" + since
+                            + "]");
+                }
+                for (Event event : history) {
+                    if (event.index >= since && event.matches(key, recursive)) {
+                        return new Response(200, event.json, index);
+                    }
+                }
+            }
+            watch = new Watch(key, recursive, since);
+            watches.add(watch);
+        }
+
+        try {
+            Event event = watch.future.get();
+            synchronized (this) {
+                return new Response(200, event.json, index);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            // The server is closing
+        } finally {
+            synchronized (this) {
+                watches.remove(watch);
+            }
+        }
+        return null;
+    }
+
+    private synchronized Response put(String key, Map<String, String> params) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        if ("/".equals(key)) {
+            return error(EtcdStatusCode.EcodeRootROnly.value(), "Root is read only", key);
+        }
+
+        boolean dir = "true".equals(params.get("dir"));
+        boolean refresh = "true".equals(params.get("refresh"));
+        String value = params.get("value");
+        if (refresh && value != null) {
+            return error(EtcdStatusCode.EcodeRefreshValue.value(), "Value provided on refresh", key);
+        }
+        if (refresh && params.get("ttl") == null) {
+            return error(EtcdStatusCode.EcodeRefreshTTLRequired.value(), "A TTL must be provided on refresh", key);
+        }
+        if (!dir && value == null) {
+            value = "";
+        }
+        long expireAt;
+        try {
+            expireAt = expireAt(params.get("ttl"), now);
+        } catch (NumberFormatException e) {
+            return error(EtcdStatusCode.EcodeTTLNaN.value(), "The given TTL in POST form is not a number", "Update");
+        }
+
+        Node existing = find(key);
+        String prevExist = params.get("prevExist");
+        String prevValue = params.get("prevValue");
+        String prevIndex = params.get("prevIndex");
+
+        if ("false".equals(prevExist) && existing != null) {
+            return error(EtcdStatusCode.EcodeNodeExist.value(), "Key already exists", key);
+        }
+        if (("true".equals(prevExist) || prevValue != null || prevIndex != null || refresh) && existing == null) {
+            return error(EtcdStatusCode.EcodeKeyNotFound.value(), "Key not found", key);
+        }
+        if (existing != null && existing.dir && !dir) {
+            return error(EtcdStatusCode.EcodeNotFile.value(), "Not a file", key);
+        }
+        if (existing != null && existing.dir && dir && !"true".equals(prevExist)) {
+            return error(EtcdStatusCode.EcodeNotFile.value(), "Not a file", key);
+        }
+
+        if (refresh && existing.dir == dir) {
+            // A refresh only resets the TTL, and watchers are not told about it
+            index++;
+            String prevJson = nodeJson(existing, false);
+            existing.modifiedIndex = index;
+            existing.expireAt = expireAt;
+            return new Response(200, json("update", existing, false, prevJson), index);
+        }
+
+        String action = "set";
+        if (prevValue != null || prevIndex != null) {
+            String cause = compare(existing, prevValue, prevIndex);
+            if (cause != null) {
+                return error(EtcdStatusCode.EcodeTestFailed.value(), "Compare failed", cause);
+            }
+            action = "compareAndSwap";
+        } else if ("false".equals(prevExist)) {
+            action = "create";
+        } else if ("true".equals(prevExist)) {
+            action = "update";
+        }
+
+        Node parent = parentFor(key);
+        if (parent == null) {
+            return error(EtcdStatusCode.EcodeNotDir.value(), "Not a directory", key);
+        }
+
+        index++;
+        String prevJson = existing == null ? null : nodeJson(existing, false);
+        Node node;
+        if (existing == null) {
+            node = new Node(key, dir ? null : value, dir, index);
+            parent.children.put(name(key), node);
+        } else {
+            node = existing;
+            node.value = dir ? null : value;
+            node.modifiedIndex = index;
+        }
+        node.expireAt = expireAt;
+
+        String json = json(action, node, false, prevJson);
+        record(new Event(index, key, action, json));
+        return new Response(existing == null ? 201 : 200, json, index);
+    }
+
+    /**
+     * Creates an in-order key below the given directory, named after the new index
+     */
+    private synchronized Response post(String key, Map<String, String> params) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        long expireAt;
+        try {
+            expireAt = expireAt(params.get("ttl"), now);
+        } catch (NumberFormatException e) {
+            return error(EtcdStatusCode.EcodeTTLNaN.value(), "The given TTL in POST form is not a number", "Create");
+        }
+        Node dir = find(key);
+        if (dir != null && !dir.dir) {
+            return error(EtcdStatusCode.EcodeNotDir.value(), "Not a directory", key);
+        }
+        String child = ("/".equals(key) ? "" : key) + "/" + Strings.padStart(Long.toString(index + 1), 20, '0');
+        Node parent = parentFor(child);
+        if (parent == null) {
+            return error(EtcdStatusCode.EcodeNotDir.value(), "Not a directory", key);
+        }
+
+        index++;
+        String value = params.get("value");
+        Node node = new Node(child, value == null ? "" : value, false, index);
+        node.expireAt = expireAt;
+        parent.children.put(name(child), node);
+
+        String json = json("create", node, false, null);
+        record(new Event(index, child, "create", json));
+        return new Response(201, json, index);
+    }
+
+    private synchronized Response delete(String key, Map<String, String> params) {
+        expire(System.currentTimeMillis());
+        if ("/".equals(key)) {
+            return error(EtcdStatusCode.EcodeRootROnly.value(), "Root is read only", key);
+        }
+        Node existing = find(key);
+        if (existing == null) {
+            return error(EtcdStatusCode.EcodeKeyNotFound.value(), "Key not found", key);
+        }
+        boolean recursive = "true".equals(params.get("recursive"));
+        boolean dir = "true".equals(params.get("dir"));
+        if (existing.dir && !dir && !recursive) {
+            return error(EtcdStatusCode.EcodeNotFile.value(), "Not a file", key);
+        }
+        if (existing.dir && !recursive && !existing.children.isEmpty()) {
+            return error(EtcdStatusCode.EcodeDirNotEmpty.value(), "Directory not empty", key);
+        }
+
+        String action = "delete";
+        String prevValue = params.get("prevValue");
+        String prevIndex = params.get("prevIndex");
+        if (prevValue != null || prevIndex != null) {
+            String cause = compare(existing, prevValue, prevIndex);
+            if (cause != null) {
+                return error(EtcdStatusCode.EcodeTestFailed.value(), "Compare failed", cause);
+            }
+            action = "compareAndDelete";
+        }
+
+        String json = remove(existing, action);
+        return new Response(200, json, index);
+    }
+
+    /**
+     * Removes a node, records the event and returns its json
+     */
+    private String remove(Node node, String action) {
+        index++;
+        String prevJson = nodeJson(node, false);
+        parentFor(node.key).children.remove(name(node.key));
+
+        Node removed = new Node(node.key, null, node.dir, node.createdIndex);
+        removed.modifiedIndex = index;
+        String json = json(action, removed, false, prevJson);
+        record(new Event(index, node.key, action, json, node.dir));
+        return json;
+    }
+
+    private void expire(long now) {
+        List<Node> expired = new ArrayList<>();
+        collectExpired(root, now, expired);
+        for (Node node : expired) {
+            if (find(node.key) == node) {
+                remove(node, "expire");
+            }
+        }
+    }
+
+    private static void collectExpired(Node node, long now, List<Node> expired) {
+        for (Node child : node.children.values()) {
+            if (child.expireAt > 0 && child.expireAt <= now) {
+                expired.add(child);
+            } else if (child.dir) {
+                collectExpired(child, now, expired);
+            }
+        }
+    }
+
+    private void record(Event event) {
+        history.addLast(event);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+        for (Iterator<Watch> it = watches.iterator(); it.hasNext();) {
+            Watch watch = it.next();
+            if (event.index >= watch.since && event.matches(watch.key, watch.recursive)) {
+                it.remove();
+                watch.future.set(event);
+            }
+        }
+    }
+
+    private static String compare(Node node, String prevValue, String prevIndex) {
+        boolean valueMatches = prevValue == null || prevValue.equals(node.value);
+        boolean indexMatches = prevIndex == null || prevIndex.equals(Long.toString(node.modifiedIndex));
+        if (valueMatches && indexMatches) {
+            return null;
+        }
+        StringBuilder cause = new StringBuilder();
+        if (!valueMatches) {
+            cause.append("[").append(prevValue).append(" != ").append(node.value).append("]");
+        }
+        if (!indexMatches) {
+            cause.append("[").append(prevIndex).append(" != ").append(node.modifiedIndex).append("]");
+        }
+        return cause.toString();
+    }
+
+    private static long expireAt(String ttl, long now) {
+        if (Strings.isNullOrEmpty(ttl)) {
+            return 0;
+        }
+        return now + TimeUnit.SECONDS.toMillis(Long.parseLong(ttl));
+    }
+
+    private Node find(String key) {
+        Node node = root;
+        if ("/".equals(key)) {
+            return node;
+        }
+        for (String name : Splitter.on('/').omitEmptyStrings().split(key)) {
+            if (!node.dir) {
+                return null;
+            }
+            node = node.children.get(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Finds the directory a key lives in, creating missing directories on the way, or null if a file is in the way
+     */
+    private Node parentFor(String key) {
+        Node node = root;
+        StringBuilder path = new StringBuilder();
+        List<String> names = Splitter.on('/').omitEmptyStrings().splitToList(key);
+        for (String name : names.subList(0, names.size() - 1)) {
+            path.append('/').append(name);
+            Node child = node.children.get(name);
+            if (child == null) {
+                // Created as part of the write about to take the next index
+                child = new Node(path.toString(), null, true, index + 1);
+                node.children.put(name, child);
+            } else if (!child.dir) {
+                return null;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private Response error(int errorCode, String message, String cause) {
+        int status;
+        switch (errorCode) {
+            case 100:
+                status = 404;
+                break;
+            case 102:
+            case 108:
+                status = 403;
+                break;
+            case 101:
+            case 105:
+                status = 412;
+                break;
+            case 300:
+            case 301:
+                status = 500;
+                break;
+            default:
+                status = 400;
+        }
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator gen = JSON.createGenerator(writer)) {
+            gen.writeStartObject();
+            gen.writeNumberField("errorCode", errorCode);
+            gen.writeStringField("message", message);
+            gen.writeStringField("cause", cause);
+            gen.writeNumberField("index", index);
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Response(status, writer.toString(), index);
+    }
+
+    private static String json(String action, Node node, boolean recursive, String prevNodeJson) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator gen = JSON.createGenerator(writer)) {
+            gen.writeStartObject();
+            gen.writeStringField("action", action);
+            gen.writeFieldName("node");
+            writeNode(gen, node, true, recursive);
+            if (prevNodeJson != null) {
+                gen.writeFieldName("prevNode");
+                gen.writeRawValue(prevNodeJson);
+            }
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private static String nodeJson(Node node, boolean recursive) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator gen = JSON.createGenerator(writer)) {
+            writeNode(gen, node, false, recursive);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private static void writeNode(JsonGenerator gen, Node node, boolean children, boolean recursive)
+            throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("key", node.key);
+        if (node.dir) {
+            gen.writeBooleanField("dir", true);
+            if (children && !node.children.isEmpty()) {
+                gen.writeArrayFieldStart("nodes");
+                for (Node child : node.children.values()) {
+                    writeNode(gen, child, recursive, recursive);
+                }
+                gen.writeEndArray();
+            }
+        } else if (node.value != null) {
+            gen.writeStringField("value", node.value);
+        }
+        if (node.expireAt > 0) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            gen.writeStringField("expiration", format.format(new Date(node.expireAt)));
+            // Whole seconds left, rounded up like etcd does
+            gen.writeNumberField("ttl", (node.expireAt - System.currentTimeMillis() + 999) / 1000);
+        }
+        if (node.key.length() > 1) {
+            gen.writeNumberField("modifiedIndex", node.modifiedIndex);
+            gen.writeNumberField("createdIndex", node.createdIndex);
+        }
+        gen.writeEndObject();
+    }
+
+    private Response statsLeader() throws IOException {
+        if (leader != null) {
+            return new Response(403, "{\"message\":\"not current leader\"}", getIndex());
+        }
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator json = JSON.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeStringField("leader", getId());
+            json.writeObjectFieldStart("followers");
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return new Response(200, writer.toString(), getIndex());
+    }
+
+    private Response members() throws IOException {
+        List<EtcdTestServer> members = new ArrayList<>();
+        members.add(this);
+        EtcdTestServer current = leader;
+        if (current != null) {
+            members.add(current);
+        }
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator json = JSON.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("members");
+            for (EtcdTestServer member : members) {
+                json.writeStartObject();
+                json.writeStringField("id", member.getId());
+                json.writeStringField("name", "member-" + member.getId());
+                json.writeArrayFieldStart("peerURLs");
+                json.writeEndArray();
+                json.writeArrayFieldStart("clientURLs");
+                json.writeString(member.getUri().toString());
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        return new Response(200, writer.toString(), getIndex());
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] body = response.body.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type",
+                response.body.startsWith("{") ? "application/json" : "text/plain");
+        exchange.getResponseHeaders().add("X-Etcd-Index", Long.toString(response.index));
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.flush();
+    }
+
+    private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (Strings.isNullOrEmpty(form)) {
+            return params;
+        }
+        for (String pair : Splitter.on('&').omitEmptyStrings().split(form)) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    private static String normalize(String key) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : Splitter.on('/').omitEmptyStrings().split(key)) {
+            sb.append('/').append(name);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static String name(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private static boolean decrementIfPositive(AtomicInteger counter) {
+        while (true) {
+            int current = counter.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static final class Node {
+
+        final String key;
+        final boolean dir;
+        final long createdIndex;
+        final TreeMap<String, Node> children = new TreeMap<>();
+        String value;
+        long modifiedIndex;
+        long expireAt;
+
+        Node(String key, String value, boolean dir, long index) {
+            this.key = key;
+            this.value = value;
+            this.dir = dir;
+            this.createdIndex = index;
+            this.modifiedIndex = index;
+        }
+    }
+
+    private static final class Event {
+
+        final long index;
+        final String key;
+        final String action;
+        final String json;
+        final boolean dir;
+
+        Event(long index, String key, String action, String json) {
+            this(index, key, action, json, false);
+        }
+
+        Event(long index, String key, String action, String json, boolean dir) {
+            this.index = index;
+            this.key = key;
+            this.action = action;
+            this.json = json;
+            this.dir = dir;
+        }
+
+        /**
+         * Whether a watch on the given key sees this event. Removing a directory also ends the watches below it.
+         */
+        boolean matches(String watchKey, boolean recursive) {
+            if (key.equals(watchKey)) {
+                return true;
+            }
+            if (recursive && ("/".equals(watchKey) || key.startsWith(watchKey + "/"))) {
+                return true;
+            }
+            return dir && !"set".equals(action) && watchKey.startsWith(key + "/");
+        }
+    }
+
+    private static final class Watch {
+
+        final String key;
+        final boolean recursive;
+        final long since;
+        final SettableFuture<Event> future = SettableFuture.create();
+
+        Watch(String key, boolean recursive, long since) {
+            this.key = key;
+            this.recursive = recursive;
+            this.since = since;
+        }
+    }
+
+    private static final class Response {
+
+        final int status;
+        final String body;
+        final long index;
+
+        Response(int status, String body, long index) {
+            this.status = status;
+            this.body = body;
+            this.index = index;
+        }
+    }
+}
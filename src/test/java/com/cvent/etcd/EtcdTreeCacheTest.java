@@ -0,0 +1,182 @@
+package com.cvent.etcd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EtcdTreeCacheTest {
+
+    EtcdTestServer server;
+    EtcdReadCacheTest.GatedExecutor decoder;
+    EtcdClient client;
+    EtcdClient writer;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer(5);
+        this.decoder = new EtcdReadCacheTest.GatedExecutor();
+        this.client = new EtcdClientBuilder().member(server.getUri()).decodeExecutor(decoder).build();
+        this.writer = new EtcdClient(server.getUri());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.decoder.release.countDown();
+        this.writer.close();
+        this.client.close();
+        this.decoder.pool.shutdownNow();
+        this.server.close();
+    }
+
+    @Test
+    public void loadsTheSubtree() throws Exception {
+        this.writer.set("/tree/a", "1");
+        this.writer.set("/tree/dir/b", "2");
+        this.writer.set("/elsewhere", "x");
+
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            Assert.assertEquals(3, cache.size());
+            Assert.assertEquals("1", cache.get("/tree/a").getValue());
+            Assert.assertEquals("2", cache.get("tree/dir/b").getValue());
+            Assert.assertTrue(cache.get("/tree/dir").isDir());
+            Assert.assertNull(cache.get("/elsewhere"));
+            Assert.assertEquals(this.server.getIndex(), cache.getIndex());
+        }
+    }
+
+    @Test
+    public void followsChanges() throws Exception {
+        this.writer.set("/tree/a", "1");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            this.writer.set("/tree/a", "2");
+            this.writer.set("/tree/new/deeper/c", "3");
+            await(cache);
+            Assert.assertEquals("2", cache.get("/tree/a").getValue());
+            Assert.assertEquals("3", cache.get("/tree/new/deeper/c").getValue());
+
+            // Setting a key creates its parent directories implicitly
+            Assert.assertTrue(cache.get("/tree/new").isDir());
+            Assert.assertTrue(cache.get("/tree/new/deeper").isDir());
+            Assert.assertEquals(keys("/tree/new/deeper"), keys(cache.listDirectory("/tree/new")));
+            Assert.assertEquals(4, cache.size());
+        }
+    }
+
+    @Test
+    public void readsShareASnapshotUntilTheNextChange() throws Exception {
+        this.writer.set("/tree/a", "1");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            SortedMap<String, EtcdNode> before = cache.scan("/");
+            Assert.assertSame(before, cache.scan("/"));
+
+            this.writer.set("/tree/a", "2");
+            this.writer.set("/tree/b", "3");
+            await(cache);
+            SortedMap<String, EtcdNode> after = cache.scan("/");
+            Assert.assertSame(after, cache.scan("/"));
+            Assert.assertEquals(keys("/tree/a", "/tree/b"), new ArrayList<>(after.keySet()));
+            Assert.assertEquals("2", after.get("/tree/a").getValue());
+
+            // A snapshot handed out earlier does not change
+            Assert.assertEquals(keys("/tree/a"), new ArrayList<>(before.keySet()));
+            Assert.assertEquals("1", before.get("/tree/a").getValue());
+        }
+    }
+
+    @Test
+    public void removesDeletedSubtrees() throws Exception {
+        this.writer.set("/tree/dir/a", "1");
+        this.writer.set("/tree/dir/sub/b", "2");
+        this.writer.set("/tree/dirx", "3");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            this.writer.deleteRecursive("/tree/dir");
+            await(cache);
+            Assert.assertNull(cache.get("/tree/dir"));
+            Assert.assertNull(cache.get("/tree/dir/sub/b"));
+            Assert.assertEquals("3", cache.get("/tree/dirx").getValue());
+            Assert.assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void listsAndScansOnlyBelowTheKey() throws Exception {
+        this.writer.set("/tree/dir/a", "1");
+        this.writer.set("/tree/dir/sub/b", "2");
+        this.writer.set("/tree/dir-x", "3");
+        this.writer.set("/tree/dir0", "4");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            Assert.assertEquals(keys("/tree/dir/a", "/tree/dir/sub"), keys(cache.listDirectory("/tree/dir")));
+            Assert.assertEquals(keys("/tree/dir/a", "/tree/dir/sub", "/tree/dir/sub/b"),
+                    new ArrayList<>(cache.scan("/tree/dir/").keySet()));
+            Assert.assertEquals(keys("/tree/dir", "/tree/dir-x", "/tree/dir0"), keys(cache.listDirectory("/tree")));
+            Assert.assertEquals(1, cache.listDirectory("/tree/dir/sub").size());
+            Assert.assertNull(cache.listDirectory("/tree/dir/sub/b"));
+            Assert.assertNull(cache.listDirectory("/tree/missing"));
+            Assert.assertTrue(cache.scan("/tree/missing").isEmpty());
+            Assert.assertEquals(6, cache.scan("/").size());
+        }
+    }
+
+    @Test
+    public void watchesAPrefixThatDoesNotExistYet() throws Exception {
+        this.writer.set("/elsewhere", "x");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(this.server.getIndex(), cache.getIndex());
+            Assert.assertTrue(cache.listDirectory("/tree").isEmpty());
+
+            this.writer.set("/tree/a", "1");
+            await(cache);
+            Assert.assertEquals("1", cache.get("/tree/a").getValue());
+        }
+    }
+
+    @Test
+    public void reloadsWhenTheHistoryIsCleared() throws Exception {
+        this.writer.set("/tree/a", "1");
+        this.writer.set("/tree/b", "2");
+        try (EtcdTreeCache cache = new EtcdTreeCache(this.client, "/tree").start()) {
+            // Holds the watch up until more changes than the server remembers have been made
+            this.decoder.arm();
+            this.writer.set("/tree/c", "3");
+            this.writer.delete("/tree/a");
+            for (int i = 0; i < 10; i++) {
+                this.writer.set("/elsewhere", Integer.toString(i));
+            }
+            this.decoder.release.countDown();
+
+            await(cache);
+            Assert.assertEquals(keys("/tree/b", "/tree/c"), keys(cache.listDirectory("/tree")));
+        }
+    }
+
+    /**
+     * Waits for the cache to catch up with the last write
+     */
+    private void await(EtcdTreeCache cache) throws InterruptedException {
+        long index = this.server.getIndex();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getIndex() < index) {
+            Assert.assertTrue("The cache is still at " + cache.getIndex(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> keys(String... keys) {
+        return Arrays.asList(keys);
+    }
+
+    private static List<String> keys(List<EtcdNode> nodes) {
+        List<String> list = new ArrayList<>();
+        for (EtcdNode node : nodes) {
+            list.add(node.getKey());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,190 @@
+package com.cvent.etcd;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cvent.etcd.EtcdWatcherTest.RecordingListener;
+
+public class EtcdWatchMultiplexerTest {
+
+    EtcdTestServer server;
+    EtcdClient client;
+    EtcdWatchMultiplexer multiplexer;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer(5);
+        // Two watch connections, far fewer than the number of keys watched
+        this.client = new EtcdClientBuilder().member(server.getUri()).separateWatchPool(true)
+                .watchMaxConnectionsPerRoute(2).build();
+        this.multiplexer = new EtcdWatchMultiplexer(client, "/services", "/config");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.multiplexer.close();
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void manyKeysShareOneWatchPerPrefix() throws Exception {
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            this.multiplexer.watch("/services/web/" + i, false, listener);
+        }
+        RecordingListener config = new RecordingListener();
+        this.multiplexer.watch("/config", true, config);
+        Assert.assertEquals(2, this.multiplexer.getWatchedPrefixes().size());
+        awaitArmed(this.multiplexer, "/services");
+        awaitArmed(this.multiplexer, "/config");
+
+        // Each change is awaited before the next, as the server only remembers the last few
+        for (int i = 0; i < 50; i++) {
+            this.client.set("/services/web/" + i, "instance" + i);
+            EtcdResult event = listeners.get(i).nextEvent();
+            Assert.assertEquals("instance" + i, event.getNode().getValue());
+        }
+        this.client.set("/config/db/url", "jdbc:x");
+        Assert.assertEquals("/config/db/url", config.nextEvent().getNode().getKey());
+        for (RecordingListener listener : listeners) {
+            Assert.assertTrue(listener.events.isEmpty());
+        }
+    }
+
+    @Test
+    public void deletingADirectoryReachesTheKeysBelowIt() throws Exception {
+        this.client.set("/services/web/a", "a");
+        RecordingListener key = new RecordingListener();
+        RecordingListener dir = new RecordingListener();
+        RecordingListener other = new RecordingListener();
+        this.multiplexer.watch("/services/web/a", false, key);
+        this.multiplexer.watch("/services/web", false, dir);
+        this.multiplexer.watch("/services/db", true, other);
+        awaitArmed(this.multiplexer, "/services");
+
+        // A change below a non-recursive watch on a directory does not reach it
+        this.client.set("/services/web/a", "b");
+        Assert.assertEquals("b", key.nextEvent().getNode().getValue());
+
+        this.client.deleteRecursive("/services/web");
+        Assert.assertEquals("delete", key.nextEvent().getAction());
+        Assert.assertEquals("delete", dir.nextEvent().getAction());
+        Assert.assertTrue(dir.events.isEmpty());
+        Assert.assertTrue(other.events.isEmpty());
+    }
+
+    @Test
+    public void deletingADirectoryAboveThePrefixReachesEveryWatch() throws Exception {
+        this.client.set("/apps/web/a", "a");
+        this.client.set("/apps/web/b/c", "c");
+        try (EtcdWatchMultiplexer nested = new EtcdWatchMultiplexer(client, "/apps/web")) {
+            RecordingListener key = new RecordingListener();
+            RecordingListener deep = new RecordingListener();
+            RecordingListener prefix = new RecordingListener();
+            nested.watch("/apps/web/a", false, key);
+            nested.watch("/apps/web/b/c", false, deep);
+            nested.watch("/apps/web", false, prefix);
+            awaitArmed(nested, "/apps/web");
+
+            this.client.deleteRecursive("/apps");
+            for (RecordingListener listener : new RecordingListener[]{key, deep, prefix}) {
+                EtcdResult event = listener.nextEvent();
+                Assert.assertEquals("delete", event.getAction());
+                Assert.assertEquals("/apps", event.getNode().getKey());
+            }
+        }
+    }
+
+    @Test
+    public void deletingAnEmptyDirectoryReachesItsWatches() throws Exception {
+        this.client.createDirectory("/services/empty");
+        RecordingListener dir = new RecordingListener();
+        RecordingListener below = new RecordingListener();
+        this.multiplexer.watch("/services/empty", false, dir);
+        this.multiplexer.watch("/services/empty/never", false, below);
+        awaitArmed(this.multiplexer, "/services");
+
+        this.client.deleteDirectory("/services/empty");
+        Assert.assertEquals("/services/empty", dir.nextEvent().getNode().getKey());
+        Assert.assertEquals("/services/empty", below.nextEvent().getNode().getKey());
+    }
+
+    @Test
+    public void prefixIsOnlyWatchedWhileSomethingIsWatchedUnderIt() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        Closeable a = this.multiplexer.watch("/services/a", false, first);
+        Closeable b = this.multiplexer.watch("/services/b", false, second);
+        awaitArmed(this.multiplexer, "/services");
+
+        a.close();
+        this.client.set("/services/a", "1");
+        this.client.set("/services/b", "2");
+        Assert.assertEquals("2", second.nextEvent().getNode().getValue());
+        Assert.assertTrue(first.events.isEmpty());
+
+        b.close();
+        Assert.assertEquals(Collections.<String>emptySet(), this.multiplexer.getWatchedPrefixes());
+    }
+
+    @Test
+    public void resyncHandsEachListenerItsOwnKey() throws Exception {
+        this.client.set("/services/web/a", "initial");
+        RecordingListener listener = new RecordingListener();
+        RecordingListener staller = new RecordingListener() {
+            @Override
+            public void onEvent(EtcdResult event) {
+                // Runs before the shared watch is re-armed, so its next request is held up
+                server.setLatencyMillis(500);
+                super.onEvent(event);
+            }
+        };
+        this.multiplexer.watch("/services/web/a", false, listener);
+        this.multiplexer.watch("/services/stall", false, staller);
+        awaitArmed(this.multiplexer, "/services");
+
+        this.client.set("/services/stall", "x");
+        staller.nextEvent();
+        // Let the re-armed watch reach the server while the latency is still on
+        Thread.sleep(100);
+        this.server.setLatencyMillis(0);
+        // Meanwhile the history the watch needs falls out of the server's last 5 events
+        for (int i = 0; i < 10; i++) {
+            this.client.set("/services/web/b", Integer.toString(i));
+        }
+
+        EtcdResult snapshot = listener.resyncs.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals("/services/web/a", snapshot.getNode().getKey());
+        Assert.assertEquals("initial", snapshot.getNode().getValue());
+        Assert.assertTrue(listener.events.isEmpty());
+        Assert.assertEquals("x", staller.resyncs.poll(5, TimeUnit.SECONDS).getNode().getValue());
+    }
+
+    /**
+     * Waits until the shared watch on the prefix has read the index it starts from
+     */
+    static void awaitArmed(EtcdWatchMultiplexer multiplexer, String prefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (multiplexer.getNextIndex(prefix) == null) {
+            Assert.assertTrue("The shared watch did not read the index", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keysOutsideThePrefixesAreRejected() {
+        this.multiplexer.watch("/elsewhere", false, new RecordingListener());
+    }
+}
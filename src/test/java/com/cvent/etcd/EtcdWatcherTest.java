@@ -0,0 +1,136 @@
+package com.cvent.etcd;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EtcdWatcherTest {
+
+    EtcdTestServer server;
+    EtcdClient client;
+    RecordingListener listener;
+
+    @Before
+    public void initialize() throws Exception {
+        this.server = new EtcdTestServer(5);
+        this.client = new EtcdClient(server.getUri());
+        this.listener = new RecordingListener();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Test
+    public void deliversEveryEventInOrder() throws Exception {
+        EtcdResult first = this.client.set("/watched/a", "1");
+        this.client.set("/watched/b", "2");
+        this.client.set("/elsewhere", "x");
+        this.client.set("/watched/a", "3");
+
+        try (EtcdWatcher watcher = this.client.watch("/watched", first.getNode().getModifiedIndex(), true,
+                listener)) {
+            Assert.assertEquals("1", listener.nextEvent().getNode().getValue());
+            Assert.assertEquals("2", listener.nextEvent().getNode().getValue());
+            Assert.assertEquals("3", listener.nextEvent().getNode().getValue());
+
+            this.client.delete("/watched/b");
+            EtcdResult event = listener.nextEvent();
+            Assert.assertEquals("delete", event.getAction());
+            Assert.assertEquals("/watched/b", event.getNode().getKey());
+            Assert.assertEquals(this.server.getIndex() + 1, watcher.getNextIndex().longValue());
+        }
+    }
+
+    @Test
+    public void resyncsWhenHistoryIsCleared() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            this.client.set("/watched/key" + i, Integer.toString(i));
+        }
+
+        try (EtcdWatcher watcher = this.client.watch("/watched", 1L, true, listener)) {
+            EtcdResult snapshot = listener.resyncs.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(snapshot);
+            Assert.assertEquals(10, snapshot.getNode().getNodes().size());
+
+            this.client.set("/watched/key10", "10");
+            Assert.assertEquals("10", listener.nextEvent().getNode().getValue());
+            Assert.assertTrue(listener.events.isEmpty());
+            Assert.assertEquals(this.server.getIndex() + 1, watcher.getNextIndex().longValue());
+        }
+    }
+
+    @Test
+    public void retriesAfterFailuresWithoutMissingChanges() throws Exception {
+        // Holds each request up, so the fault can be set up while the first long poll is on its way
+        this.server.setLatencyMillis(300);
+        try (EtcdWatcher watcher = this.client.watch("/watched", null, false, listener)) {
+            awaitIndex(watcher);
+            this.server.failNextRequests(1);
+            Assert.assertNotNull(listener.errors.poll(5, TimeUnit.SECONDS));
+
+            // Made while the watcher is backing off, before it has seen any event
+            this.server.setLatencyMillis(0);
+            this.client.set("/watched", "value");
+            Assert.assertEquals("value", listener.nextEvent().getNode().getValue());
+        }
+    }
+
+    @Test
+    public void startsAfterTheIndexOfAMissingKey() throws Exception {
+        this.client.set("/other", "x");
+        try (EtcdWatcher watcher = this.client.watch("/missing", null, false, listener)) {
+            awaitIndex(watcher);
+            Assert.assertEquals(this.server.getIndex() + 1, watcher.getNextIndex().longValue());
+
+            this.client.set("/missing", "created");
+            Assert.assertEquals("created", listener.nextEvent().getNode().getValue());
+        }
+    }
+
+    /**
+     * Waits until the watcher has read the index it starts from
+     */
+    static void awaitIndex(EtcdWatcher watcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (watcher.getNextIndex() == null) {
+            Assert.assertTrue("The watcher did not read the index", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    static class RecordingListener implements EtcdWatchListener {
+
+        final BlockingQueue<EtcdResult> events = new LinkedBlockingQueue<>();
+        final BlockingQueue<EtcdResult> resyncs = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onEvent(EtcdResult event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onResync(EtcdResult snapshot) {
+            resyncs.add(snapshot);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            errors.add(cause);
+        }
+
+        EtcdResult nextEvent() throws InterruptedException {
+            EtcdResult event = events.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("No event delivered", event);
+            return event;
+        }
+    }
+}
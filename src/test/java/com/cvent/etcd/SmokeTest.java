@@ -1,25 +1,50 @@
 package com.cvent.etcd;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.util.concurrent.ListenableFuture;
 
+/**
+ * Runs against an in-process {@link EtcdTestServer}, or against a real etcd if given one with -Detcd.uri=...
+ */
 public class SmokeTest {
 
     String prefix;
+    String uri;
+    EtcdTestServer server;
     EtcdClient client;
 
     @Before
-    public void initialize() {
+    public void initialize() throws Exception {
         this.prefix = "/unittest-" + UUID.randomUUID().toString();
-        this.client = new EtcdClient(URI.create("http://127.0.0.1:4001/"));
+        this.uri = System.getProperty("etcd.uri");
+        if (this.uri == null) {
+            this.server = new EtcdTestServer();
+            this.uri = this.server.getUri().toString();
+        }
+        this.client = new EtcdClient(URI.create(this.uri));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.client.close();
+        if (this.server != null) {
+            this.server.close();
+        }
     }
 
     @Test
@@ -50,6 +75,19 @@ public class SmokeTest {
         Assert.assertNull(result.getPrevNode());
     }
 
+    @Test
+    public void setAndGetBytes() throws Exception {
+        String key = prefix + "/bytes";
+        byte[] value = "{\"blob\": \"a&b=c+d 100% caf\u00e9\"}".getBytes(Charsets.UTF_8);
+
+        EtcdResult result = this.client.setBytes(key, value);
+        Assert.assertArrayEquals(value, result.getNode().getValueBytes());
+
+        Assert.assertArrayEquals(value, this.client.getBytes(key));
+        Assert.assertEquals(new String(value, Charsets.UTF_8), this.client.get(key).getNode().getValue());
+        Assert.assertNull(this.client.getBytes(prefix + "/doesnotexist"));
+    }
+
     @Test
     public void getNonExistentKey() throws Exception {
         String key = prefix + "/doesnotexist";
@@ -93,6 +131,18 @@ public class SmokeTest {
         }
     }
 
+    @Test
+    public void deleteRecursiveNonExistentKey() throws Exception {
+        String key = prefix + "/doesnotexist";
+
+        try {
+            this.client.deleteRecursive(key);
+            Assert.fail();
+        } catch (EtcdClientException e) {
+            Assert.assertTrue(e.isEtcdError(100));
+        }
+    }
+
     @Test
     public void testTtl() throws Exception {
         String key = prefix + "/ttl";
@@ -134,6 +184,63 @@ public class SmokeTest {
         Assert.assertEquals("world", result.getNode().getValue());
     }
 
+    @Test
+    public void testConditionalWrites() throws Exception {
+        String key = prefix + "/conditional";
+
+        Assert.assertNull(this.client.replace(key, "nope", null));
+        EtcdResult created = this.client.create(key, "hello", null);
+        Assert.assertFalse(created.isError());
+        Assert.assertEquals(EtcdStatusCode.EcodeNodeExist.value(),
+                (int) this.client.create(key, "again", null).getErrorCode());
+
+        long index = created.getNode().getModifiedIndex();
+        EtcdResult result = this.client.casByIndex(key, index, "world");
+        Assert.assertFalse(result.isError());
+        result = this.client.casByIndex(key, index, "stale");
+        Assert.assertEquals(EtcdStatusCode.EcodeTestFailed.value(), (int) result.getErrorCode());
+        Assert.assertEquals("world", this.client.get(key).getNode().getValue());
+
+        Assert.assertEquals("replaced", this.client.replace(key, "replaced", null).getNode().getValue());
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        final String key = prefix + "/counter";
+        EtcdClientStats stats = new EtcdClientStats();
+        Function<String, String> increment = new Function<String, String>() {
+            @Override
+            public String apply(String value) {
+                return Integer.toString(value == null ? 1 : Integer.parseInt(value) + 1);
+            }
+        };
+
+        try (EtcdClient contended = new EtcdClientBuilder().member(URI.create(this.uri)).maxConnectionsPerRoute(16)
+                .metrics(stats).build()) {
+            List<ListenableFuture<EtcdResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(contended.updateAsync(key, increment));
+            }
+            for (ListenableFuture<EtcdResult> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        Assert.assertEquals("8", this.client.get(key).getNode().getValue());
+        Assert.assertEquals(8, stats.getUpdates());
+        Assert.assertEquals(0, stats.getUpdatesFailed());
+        Assert.assertEquals(stats.getUpdateConflicts(), stats.get(EtcdOperation.CAS).getRequests() - 8);
+
+        // Returning null leaves the key alone
+        EtcdResult unchanged = this.client.update(key, new Function<String, String>() {
+            @Override
+            public String apply(String value) {
+                return null;
+            }
+        });
+        Assert.assertEquals("8", unchanged.getNode().getValue());
+    }
+
     @Test
     public void testWatchPrefix() throws Exception {
         String key = prefix + "/watch";
@@ -222,6 +329,59 @@ public class SmokeTest {
         }
     }
 
+    @Test
+    public void testTraverse() throws Exception {
+        String key = prefix + "/tree";
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            keys.add(key + "/service" + (i % 5) + "/instance" + i);
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String k : keys) {
+            values.put(k, k.substring(k.lastIndexOf('/') + 1));
+        }
+        Assert.assertTrue(this.client.setAll(values).isSuccess());
+
+        final List<EtcdNode> visited = new ArrayList<>();
+        EtcdResult result = this.client.traverse(key, new EtcdNodeVisitor() {
+            @Override
+            public boolean visit(EtcdNode node) {
+                visited.add(node);
+                return true;
+            }
+        });
+        Assert.assertEquals(key, result.getNode().getKey());
+        Assert.assertNull(result.getNode().getNodes());
+        Assert.assertTrue(result.getIndex() > 0);
+        // 50 keys, 5 directories and the root, which comes last
+        Assert.assertEquals(56, visited.size());
+        Assert.assertEquals(key, visited.get(55).getKey());
+        for (EtcdNode node : visited) {
+            if (!node.isDir()) {
+                Assert.assertEquals(values.get(node.getKey()), node.getValue());
+            }
+            Assert.assertNull(node.getNodes());
+        }
+
+        visited.clear();
+        result = this.client.traverse(key, new EtcdNodeVisitor() {
+            @Override
+            public boolean visit(EtcdNode node) {
+                visited.add(node);
+                return visited.size() < 3;
+            }
+        });
+        Assert.assertEquals(3, visited.size());
+        Assert.assertNull(result.getNode());
+
+        Assert.assertNull(this.client.traverse(prefix + "/doesnotexist", new EtcdNodeVisitor() {
+            @Override
+            public boolean visit(EtcdNode node) {
+                throw new AssertionError();
+            }
+        }));
+    }
+
     @Test
     public void testGetVersion() throws Exception {
         String version = this.client.getVersion();